@@ -0,0 +1,261 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import io.github.caojohnny.tinierprotocol.TinierProtocol;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.ClientConnection;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.HandlerWatchdog;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.MainThreadConsumer;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.PacketTap;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.ProtocolPhase;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import net.minecraft.server.v1_15_R1.DedicatedPlayerList;
+import net.minecraft.server.v1_15_R1.EnumProtocol;
+import net.minecraft.server.v1_15_R1.MinecraftServer;
+import net.minecraft.server.v1_15_R1.NetworkManager;
+import net.minecraft.server.v1_15_R1.Packet;
+import net.minecraft.server.v1_15_R1.PacketPlayInFlying;
+import net.minecraft.server.v1_15_R1.PacketPlayOutEntityVelocity;
+import net.minecraft.server.v1_15_R1.PacketPlayOutKeepAlive;
+import net.minecraft.server.v1_15_R1.ServerConnection;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the bytes that TinierProtocol allocates for
+ * each packet and exits with a failure status if any path
+ * allocates more than its budget.
+ *
+ * <p>Each path is run on two embedded channels with the
+ * stand-in server's pipeline, one intercepted by
+ * TinierProtocol and one not, so that the allocations of
+ * the pipeline itself are subtracted. The handlers set on
+ * TinierProtocol return the packet they are given, so
+ * only the interceptors are measured.</p>
+ *
+ * <p>Each of the optional interceptor features is then
+ * enabled in turn and measured on the path that it
+ * intercepts. Every path is measured over several rounds
+ * once it has warmed up, and the round with the fewest
+ * bytes is kept, so that a collection or a compilation
+ * during one round does not fail the check.</p>
+ *
+ * <p>The measurement relies on the per-thread allocation
+ * counters of HotSpot-based JVMs, and is skipped on those
+ * that do not support them.</p>
+ */
+public final class AllocationBudget {
+    // The budgets allow for the argument array that each call to a
+    // java.lang.reflect.Proxy allocates: 24 bytes for up to 2 arguments and
+    // 32 bytes for 3, so 56 bytes for a write followed by a flush. Each call
+    // is given 8 bytes of headroom, since the allocation counters are not
+    // exact
+    private static final long READ_BUDGET = 32;
+    private static final long READ_COMPLETE_BUDGET = 32;
+    private static final long WRITE_AND_FLUSH_BUDGET = 72;
+    // Taps, rewrites, phase handlers, the watchdog and the hidden
+    // entity filter reuse what they need for each packet, so they
+    // are given the budget of the path that they intercept
+    private static final long TAP_BUDGET = WRITE_AND_FLUSH_BUDGET;
+    private static final long REWRITE_BUDGET = WRITE_AND_FLUSH_BUDGET;
+    private static final long PHASE_HANDLER_BUDGET = WRITE_AND_FLUSH_BUDGET;
+    private static final long WATCHDOG_BUDGET = WRITE_AND_FLUSH_BUDGET;
+    private static final long HIDDEN_ENTITIES_BUDGET = WRITE_AND_FLUSH_BUDGET;
+    // Main thread consumers buffer each packet in a 24 byte array
+    // held by a 24 byte queue node
+    private static final long MAIN_THREAD_CONSUMER_BUDGET = READ_BUDGET + 48;
+
+    private static final int WARMUP_ITERATIONS = 200_000;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int MEASURED_ITERATIONS = 100_000;
+    // Large enough that no packet is dropped between two ticks
+    private static final int CONSUMER_CAPACITY = 1 << 20;
+    // The entity hidden from the intercepted connection, and the
+    // one that it is sent packets about
+    private static final int HIDDEN_ENTITY_ID = 1;
+    private static final int VISIBLE_ENTITY_ID = 2;
+
+    // Set once main has checked that it is supported
+    private static com.sun.management.ThreadMXBean allocationCounter;
+
+    private AllocationBudget() {
+    }
+
+    /**
+     * An operation which sends one packet through a
+     * channel.
+     */
+    private interface PacketPath {
+        void run(EmbeddedChannel channel, NetworkManager networkManager);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ThreadMXBean threadMxBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMxBean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) threadMxBean).isThreadAllocatedMemorySupported()) {
+            System.out.println("Per-thread allocation counters are not supported, skipping");
+            return;
+        }
+
+        allocationCounter = (com.sun.management.ThreadMXBean) threadMxBean;
+        allocationCounter.setThreadAllocatedMemoryEnabled(true);
+
+        MinecraftServer server = new MinecraftServer();
+        StandInBukkit bukkit = new StandInBukkit(new DedicatedPlayerList(server));
+        ServerConnection serverConnection = server.getServerConnection();
+
+        // Channels present before begin() are intercepted,
+        // those set up afterwards are not since they do not
+        // pass through the listening channel
+        EmbeddedChannel intercepted = new EmbeddedChannel(false, true);
+        NetworkManager interceptedManager = setupChannel(serverConnection, intercepted);
+
+        ClientConnection[] connection = new ClientConnection[1];
+        TinierProtocol protocol = new TinierProtocol(bukkit.getPlugin());
+        protocol.setInHandler((cc, packet) -> {
+            connection[0] = cc;
+            return packet;
+        });
+        protocol.setOutHandler((cc, packet) -> packet);
+        protocol.begin();
+        intercepted.runPendingTasks();
+
+        EmbeddedChannel control = new EmbeddedChannel(false, true);
+        NetworkManager controlManager = setupChannel(serverConnection, control);
+
+        Packet inbound = new PacketPlayInFlying(true);
+        Packet outbound = new PacketPlayOutKeepAlive(0);
+        Packet entityOutbound = new PacketPlayOutEntityVelocity(VISIBLE_ENTITY_ID);
+        // Obtain the intercepted connection
+        intercepted.pipeline().context("decoder").fireChannelRead(inbound);
+
+        PacketPath read = (channel, networkManager) -> channel.pipeline().context("decoder").fireChannelRead(inbound);
+        PacketPath write = (channel, networkManager) -> networkManager.sendPacket(outbound);
+
+        boolean isOverBudget = false;
+        isOverBudget |= check("channelRead", READ_BUDGET, intercepted, interceptedManager, control, controlManager,
+                read);
+        isOverBudget |= check("channelReadComplete", READ_COMPLETE_BUDGET, intercepted, interceptedManager, control, controlManager,
+                (channel, networkManager) -> channel.pipeline().context("decoder").fireChannelReadComplete());
+        isOverBudget |= check("write and flush", WRITE_AND_FLUSH_BUDGET, intercepted, interceptedManager, control, controlManager,
+                write);
+        isOverBudget |= check("sendPacket", WRITE_AND_FLUSH_BUDGET, intercepted, interceptedManager, control, controlManager,
+                (channel, networkManager) -> {
+                    if (channel == intercepted) {
+                        connection[0].sendPacket(outbound);
+                    } else {
+                        channel.writeAndFlush(outbound);
+                    }
+                });
+
+        PacketTap tap = new PacketTap(event -> {
+        }, 1024, PacketTap.DropPolicy.DROP_OLDEST);
+        protocol.addTap(tap);
+        isOverBudget |= check("tap", TAP_BUDGET, intercepted, interceptedManager, control, controlManager, write);
+        protocol.removeTap(tap);
+
+        protocol.setOutRewriteHandler((cc, rewrite) -> {
+        });
+        isOverBudget |= check("rewrite handler", REWRITE_BUDGET, intercepted, interceptedManager,
+                control, controlManager, write);
+        protocol.setOutRewriteHandler(null);
+
+        MainThreadConsumer consumer = new MainThreadConsumer((cc, packets) -> {
+        }, CONSUMER_CAPACITY, PacketPlayInFlying.class);
+        protocol.addMainThreadConsumer(consumer);
+        isOverBudget |= check("main thread consumer", MAIN_THREAD_CONSUMER_BUDGET, intercepted, interceptedManager,
+                control, controlManager, read);
+        protocol.removeMainThreadConsumer(consumer);
+
+        protocol.setOutHandler(ProtocolPhase.PLAY, (cc, packet) -> packet);
+        isOverBudget |= check("phase handler", PHASE_HANDLER_BUDGET, intercepted, interceptedManager,
+                control, controlManager, write);
+        protocol.setOutHandler(ProtocolPhase.PLAY, null);
+
+        protocol.setWatchdog(new HandlerWatchdog(1, TimeUnit.SECONDS, 16));
+        isOverBudget |= check("watchdog", WATCHDOG_BUDGET, intercepted, interceptedManager, control, controlManager,
+                write);
+        protocol.setWatchdog(null);
+
+        connection[0].hideEntities(HIDDEN_ENTITY_ID);
+        isOverBudget |= check("hidden entities", HIDDEN_ENTITIES_BUDGET, intercepted, interceptedManager,
+                control, controlManager, (channel, networkManager) -> networkManager.sendPacket(entityOutbound));
+        connection[0].showEntities(HIDDEN_ENTITY_ID);
+
+        // The control channel has no interceptors to remove
+        control.finishAndReleaseAll();
+        protocol.close();
+        intercepted.finishAndReleaseAll();
+        bukkit.shutdown();
+
+        if (isOverBudget) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Adds the stand-in server's handlers to the given
+     * unregistered channel and registers it.
+     */
+    private static NetworkManager setupChannel(ServerConnection serverConnection,
+                                               EmbeddedChannel channel) throws Exception {
+        NetworkManager networkManager = serverConnection.setupChannel(channel);
+        channel.register();
+        networkManager.setProtocol(EnumProtocol.PLAY);
+
+        return networkManager;
+    }
+
+    /**
+     * Measures the bytes allocated per packet by the
+     * interceptors on the given path, keeping the round
+     * with the fewest bytes, and reports whether it is over
+     * budget.
+     *
+     * @return {@code true} if the path is over budget
+     */
+    private static boolean check(String name, long budget,
+                                 EmbeddedChannel intercepted, NetworkManager interceptedManager,
+                                 EmbeddedChannel control, NetworkManager controlManager,
+                                 PacketPath path) {
+        measure(intercepted, interceptedManager, path, WARMUP_ITERATIONS);
+        measure(control, controlManager, path, WARMUP_ITERATIONS);
+
+        long minBytes = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long interceptedBytes = measure(intercepted, interceptedManager, path, MEASURED_ITERATIONS);
+            long controlBytes = measure(control, controlManager, path, MEASURED_ITERATIONS);
+            minBytes = Math.min(minBytes, Math.max(0, interceptedBytes - controlBytes));
+        }
+        double bytesPerPacket = minBytes / (double) MEASURED_ITERATIONS;
+
+        boolean isOverBudget = bytesPerPacket > budget;
+        System.out.printf("%-20s %6.1f bytes/packet (budget %d)%s%n", name, bytesPerPacket, budget,
+                isOverBudget ? " OVER BUDGET" : "");
+        return isOverBudget;
+    }
+
+    /**
+     * Runs the given path repeatedly, discarding anything
+     * written to the channel.
+     *
+     * @return the bytes allocated by this thread
+     */
+    private static long measure(EmbeddedChannel channel, NetworkManager networkManager,
+                                PacketPath path, int iterations) {
+        long threadId = Thread.currentThread().getId();
+        long start = allocationCounter.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            path.run(channel, networkManager);
+
+            Object written;
+            while ((written = channel.readOutbound()) != null) {
+                ReferenceCountUtil.release(written);
+            }
+        }
+
+        return allocationCounter.getThreadAllocatedBytes(threadId) - start;
+    }
+}
@@ -0,0 +1,385 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import io.github.caojohnny.tinierprotocol.TinierProtocol;
+import io.github.caojohnny.tinierprotocol.TinierProtocol.ClientConnection;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PoolArenaMetric;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.minecraft.server.v1_15_R1.DedicatedPlayerList;
+import net.minecraft.server.v1_15_R1.EnumProtocol;
+import net.minecraft.server.v1_15_R1.EnumProtocolDirection;
+import net.minecraft.server.v1_15_R1.MinecraftServer;
+import net.minecraft.server.v1_15_R1.NetworkManager;
+import net.minecraft.server.v1_15_R1.Packet;
+import net.minecraft.server.v1_15_R1.PacketCompressor;
+import net.minecraft.server.v1_15_R1.PacketEncoder;
+import net.minecraft.server.v1_15_R1.PacketHandshakingInSetProtocol;
+import net.minecraft.server.v1_15_R1.PacketLoginOutSetCompression;
+import net.minecraft.server.v1_15_R1.PacketPlayOutMapChunk;
+import net.minecraft.server.v1_15_R1.PacketPrepender;
+import net.minecraft.server.v1_15_R1.ServerConnection;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that the frames compressed by the
+ * {@link TinierProtocol.CompressionOffload} are identical
+ * to those of the server's compressor, and exits with a
+ * failure status if they are not.
+ *
+ * <p>A client connects to the stand-in server, which
+ * enables compression the way the server does and then
+ * sends chunks of varying sizes, so that some are sent
+ * uncompressed, some are compressed inline and some are
+ * offloaded. The bytes the client receives are compared
+ * to those of the same packets written through the
+ * stand-in server's handlers alone.</p>
+ *
+ * <p>Another client is then sent a burst of large chunks
+ * and closed while they are being compressed, to check
+ * that every write completes and that every frame is
+ * released.</p>
+ */
+public final class CompressionCheck {
+    // Protocol version of 1.15.2
+    private static final int PROTOCOL_VERSION = 578;
+
+    private static final int COMPRESSION_THRESHOLD = 256;
+    private static final int OFFLOAD_THRESHOLD = 8192;
+    private static final int OFFLOAD_THREADS = 2;
+    private static final int PACKETS = 2000;
+    // The number of chunks sent to the client that is closed
+    // while they are being compressed
+    private static final int CLOSED_PACKETS = 64;
+
+    // How long to wait for the client to connect and
+    // receive every packet
+    private static final long AWAIT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private CompressionCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        MinecraftServer server = new MinecraftServer();
+        StandInBukkit bukkit = new StandInBukkit(new DedicatedPlayerList(server));
+        ServerConnection serverConnection = server.getServerConnection();
+        serverConnection.a(InetAddress.getLoopbackAddress(), 0);
+
+        BlockingQueue<ClientConnection> connections = new LinkedBlockingQueue<>();
+        TinierProtocol.CompressionOffload offload =
+                new TinierProtocol.CompressionOffload(OFFLOAD_THRESHOLD, OFFLOAD_THREADS);
+        TinierProtocol protocol = new TinierProtocol(bukkit.getPlugin());
+        protocol.setCompressionOffload(offload);
+        protocol.setInHandler((cc, packet) -> {
+            connections.add(cc);
+            return packet;
+        });
+        protocol.begin();
+
+        ByteBuf received = Unpooled.buffer();
+        EventLoopGroup eventLoops = new NioEventLoopGroup(1, new DefaultThreadFactory("Compression Check", true));
+        NetworkManager networkManager = connect(eventLoops, serverConnection, received, connections);
+
+        List<Packet> packets = createPackets();
+        networkManager.sendPacket(new PacketLoginOutSetCompression(COMPRESSION_THRESHOLD),
+                future -> networkManager.setCompressionLevel(COMPRESSION_THRESHOLD));
+        for (Packet packet : packets) {
+            networkManager.sendPacket(packet);
+        }
+
+        byte[] expected = encodeExpected(packets);
+        long deadline = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (receivedBytes(received) < expected.length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        byte[] actual;
+        synchronized (received) {
+            actual = new byte[received.readableBytes()];
+            received.readBytes(actual);
+            received.release();
+        }
+
+        int mismatch = findMismatch(expected, actual);
+        String closeFailure = checkClose(eventLoops, serverConnection, connections);
+
+        protocol.close();
+        eventLoops.shutdownGracefully().syncUninterruptibly();
+        serverConnection.b();
+        bukkit.shutdown();
+
+        System.out.printf("%d packets, %d offloaded, %d of %d bytes received%n", packets.size(),
+                offload.getOffloadedCount(), actual.length, expected.length);
+        if (mismatch >= 0) {
+            System.out.printf("Received bytes differ from the server's compressor at offset %d%n", mismatch);
+            System.exit(1);
+        }
+
+        if (offload.getOffloadedCount() == 0) {
+            System.out.println("No frames were offloaded");
+            System.exit(1);
+        }
+
+        if (closeFailure != null) {
+            System.out.println(closeFailure);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Connects a client to the stand-in server, which
+     * collects every byte that it receives once it has sent
+     * the handshake.
+     *
+     * @return the server's handler of the connection
+     */
+    private static NetworkManager connect(EventLoopGroup eventLoops, ServerConnection serverConnection,
+                                          ByteBuf received, BlockingQueue<ClientConnection> connections)
+            throws InterruptedException {
+        new Bootstrap()
+                .group(eventLoops)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .remoteAddress(serverConnection.getListeningAddress())
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline()
+                                .addLast("receiver", new Receiver(received))
+                                .addLast("prepender", new PacketPrepender())
+                                .addLast("encoder", new PacketEncoder(EnumProtocolDirection.SERVERBOUND));
+                    }
+                })
+                .connect()
+                .syncUninterruptibly();
+
+        ClientConnection connection = connections.poll(AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (connection == null) {
+            throw new IllegalStateException("Client did not connect");
+        }
+
+        Channel channel = (Channel) connection.getRawChannel();
+        return (NetworkManager) channel.pipeline().get("packet_handler");
+    }
+
+    /**
+     * Sends a burst of large chunks to another client and
+     * closes its channel while they are being compressed.
+     *
+     * <p>The frames are allocated by an allocator of their
+     * own, without thread caches, so that any frame that
+     * is not released once the channel is closed is still
+     * counted as allocated.</p>
+     *
+     * @return the reason the check failed, or {@code null}
+     * if every write completed and every frame was released
+     */
+    private static String checkClose(EventLoopGroup eventLoops, ServerConnection serverConnection,
+                                     BlockingQueue<ClientConnection> connections) throws InterruptedException {
+        ByteBuf received = Unpooled.buffer();
+        NetworkManager networkManager = connect(eventLoops, serverConnection, received, connections);
+        Channel channel = networkManager.channel;
+        PooledByteBufAllocator allocator = new PooledByteBufAllocator(true, 1, 1, 8192, 11, 0, 0, 0, true);
+        channel.config().setAllocator(allocator);
+
+        CountDownLatch latch = new CountDownLatch(CLOSED_PACKETS);
+        AtomicInteger failed = new AtomicInteger();
+        networkManager.sendPacket(new PacketLoginOutSetCompression(COMPRESSION_THRESHOLD),
+                future -> networkManager.setCompressionLevel(COMPRESSION_THRESHOLD));
+
+        Random random = new Random(1);
+        for (int i = 0; i < CLOSED_PACKETS; i++) {
+            byte[] data = new byte[OFFLOAD_THRESHOLD * 8];
+            random.nextBytes(data);
+
+            networkManager.sendPacket(new PacketPlayOutMapChunk(i, i, data), future -> {
+                if (!future.isSuccess()) {
+                    failed.incrementAndGet();
+                }
+
+                latch.countDown();
+            });
+        }
+        channel.close();
+
+        boolean isCompleted = latch.await(AWAIT_MILLIS, TimeUnit.MILLISECONDS);
+        synchronized (received) {
+            received.release();
+        }
+
+        // Workers release the frames they are compressing
+        // once they are done, after the writes have failed
+        long active = activeAllocations(allocator);
+        long deadline = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (active > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            active = activeAllocations(allocator);
+        }
+
+        System.out.printf("%d packets sent to a closed client, %d failed, %d frames not released%n",
+                CLOSED_PACKETS - latch.getCount(), failed.get(), active);
+        if (!isCompleted) {
+            return latch.getCount() + " writes to the closed client did not complete";
+        }
+
+        if (active > 0) {
+            return active + " frames sent to the closed client were not released";
+        }
+
+        return null;
+    }
+
+    private static long activeAllocations(PooledByteBufAllocator allocator) {
+        long active = 0;
+        for (PoolArenaMetric arena : allocator.metric().directArenas()) {
+            active += arena.numActiveAllocations();
+        }
+        for (PoolArenaMetric arena : allocator.metric().heapArenas()) {
+            active += arena.numActiveAllocations();
+        }
+
+        return active;
+    }
+
+    /**
+     * Creates chunks of compressible data of random sizes,
+     * below the compression threshold, between the
+     * thresholds and above the offload threshold.
+     */
+    private static List<Packet> createPackets() {
+        Random random = new Random(0);
+        List<Packet> packets = new ArrayList<>(PACKETS);
+        for (int i = 0; i < PACKETS; i++) {
+            int size;
+            switch (random.nextInt(3)) {
+                case 0:
+                    size = random.nextInt(COMPRESSION_THRESHOLD);
+                    break;
+                case 1:
+                    size = COMPRESSION_THRESHOLD + random.nextInt(OFFLOAD_THRESHOLD - COMPRESSION_THRESHOLD);
+                    break;
+                default:
+                    size = OFFLOAD_THRESHOLD + random.nextInt(8 * OFFLOAD_THRESHOLD);
+                    break;
+            }
+
+            byte[] data = new byte[size];
+            for (int j = 0; j < size; j++) {
+                data[j] = (byte) random.nextInt(16);
+            }
+
+            packets.add(new PacketPlayOutMapChunk(i, -i, data));
+        }
+
+        return packets;
+    }
+
+    /**
+     * Writes the packet enabling compression followed by
+     * the given packets through the stand-in server's
+     * handlers, without TinierProtocol.
+     *
+     * @return the bytes the client is expected to receive
+     */
+    private static byte[] encodeExpected(List<Packet> packets) {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.pipeline()
+                .addLast("prepender", new PacketPrepender())
+                .addLast("encoder", new PacketEncoder(EnumProtocolDirection.CLIENTBOUND));
+        channel.attr(NetworkManager.c).set(EnumProtocol.LOGIN);
+        channel.writeOutbound(new PacketLoginOutSetCompression(COMPRESSION_THRESHOLD));
+
+        channel.pipeline().addBefore("encoder", "compress", new PacketCompressor(COMPRESSION_THRESHOLD));
+        channel.attr(NetworkManager.c).set(EnumProtocol.PLAY);
+        for (Packet packet : packets) {
+            channel.writeOutbound(packet);
+        }
+
+        ByteBuf expected = Unpooled.buffer();
+        ByteBuf frame;
+        while ((frame = channel.readOutbound()) != null) {
+            expected.writeBytes(frame);
+            frame.release();
+        }
+
+        byte[] bytes = new byte[expected.readableBytes()];
+        expected.readBytes(bytes);
+        expected.release();
+        channel.finishAndReleaseAll();
+        return bytes;
+    }
+
+    private static int receivedBytes(ByteBuf received) {
+        synchronized (received) {
+            return received.readableBytes();
+        }
+    }
+
+    /**
+     * Finds the first offset at which the given byte
+     * arrays differ.
+     *
+     * @return the offset, or -1 if they are identical
+     */
+    private static int findMismatch(byte[] expected, byte[] actual) {
+        int length = Math.min(expected.length, actual.length);
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != actual[i]) {
+                return i;
+            }
+        }
+
+        return expected.length == actual.length ? -1 : length;
+    }
+
+    /**
+     * Sends the handshake once connected and collects
+     * every byte received afterwards.
+     */
+    private static final class Receiver extends ChannelInboundHandlerAdapter {
+        private final ByteBuf received;
+
+        Receiver(ByteBuf received) {
+            this.received = received;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            InetSocketAddress addr = (InetSocketAddress) ctx.channel().remoteAddress();
+            ctx.channel().attr(NetworkManager.c).set(EnumProtocol.HANDSHAKING);
+            ctx.channel().writeAndFlush(new PacketHandshakingInSetProtocol(PROTOCOL_VERSION,
+                    addr.getHostString(), addr.getPort(), EnumProtocol.LOGIN));
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ByteBuf buf = (ByteBuf) msg;
+            synchronized (this.received) {
+                this.received.writeBytes(buf);
+            }
+
+            buf.release();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import net.minecraft.server.v1_15_R1.EnumProtocolDirection;
+import net.minecraft.server.v1_15_R1.PacketDecoder;
+import net.minecraft.server.v1_15_R1.PacketEncoder;
+import net.minecraft.server.v1_15_R1.PacketPrepender;
+import net.minecraft.server.v1_15_R1.PacketSplitter;
+
+import java.net.SocketAddress;
+
+/**
+ * Opens simulated clients to the stand-in server, using
+ * the same framing and codecs as the server in the other
+ * direction.
+ */
+final class LoadGenerator {
+    private final EventLoopGroup eventLoops;
+    private final Bootstrap bootstrap;
+    private final LoadStats stats;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param server the address of the server
+     * @param threads the number of client event loops, or
+     * 0 for the Netty default
+     * @param packetsPerSecond the keep alives each client
+     * sends per second
+     * @param stats the counters to update
+     */
+    LoadGenerator(SocketAddress server, int threads, int packetsPerSecond, LoadStats stats) {
+        this.eventLoops = new NioEventLoopGroup(threads, new DefaultThreadFactory("Load Generator", true));
+        this.stats = stats;
+        this.bootstrap = new Bootstrap()
+                .group(this.eventLoops)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .remoteAddress(server)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.pipeline()
+                                .addLast("splitter", new PacketSplitter())
+                                .addLast("decoder", new PacketDecoder(EnumProtocolDirection.CLIENTBOUND))
+                                .addLast("prepender", new PacketPrepender())
+                                .addLast("encoder", new PacketEncoder(EnumProtocolDirection.SERVERBOUND))
+                                .addLast("client", new SimulatedClient(packetsPerSecond, stats));
+                    }
+                });
+    }
+
+    /**
+     * Starts connecting the given number of clients
+     * without waiting for them to connect.
+     *
+     * @param count the number of clients
+     */
+    void connect(int count) {
+        for (int i = 0; i < count; i++) {
+            this.bootstrap.connect().addListener(future -> {
+                if (!future.isSuccess()) {
+                    this.stats.failed.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Disconnects every client.
+     */
+    void close() {
+        this.eventLoops.shutdownGracefully().syncUninterruptibly();
+    }
+}
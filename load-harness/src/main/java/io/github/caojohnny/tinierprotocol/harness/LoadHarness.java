@@ -0,0 +1,164 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import io.github.caojohnny.tinierprotocol.TinierProtocol;
+import net.minecraft.server.v1_15_R1.DedicatedPlayerList;
+import net.minecraft.server.v1_15_R1.MinecraftServer;
+import net.minecraft.server.v1_15_R1.ServerConnection;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+/**
+ * Measures TinierProtocol against a stand-in server on the
+ * loopback interface.
+ *
+ * <p>The harness binds the stand-in server, then measures
+ * {@link TinierProtocol#begin()}, a storm of clients
+ * connecting at once, the packet throughput sustained by
+ * those clients and {@link TinierProtocol#close()} while
+ * they are still connected.</p>
+ *
+ * <p>Options are given as {@code --name=value}:
+ * - {@code clients}: the number of clients (1000)
+ * - {@code rate}: keep alives each client sends per
+ * second (20)
+ * - {@code duration}: seconds to sustain the load (30)
+ * - {@code threads}: client event loops, 0 for the Netty
+ * default (0)
+ * - {@code baseline}: {@code true} to run without
+ * TinierProtocol for comparison (false)</p>
+ */
+public final class LoadHarness {
+    // How long to wait for clients to connect or respond
+    private static final long AWAIT_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        int clients = Integer.parseInt(options.getOrDefault("clients", "1000"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "20"));
+        int duration = Integer.parseInt(options.getOrDefault("duration", "30"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "0"));
+        boolean baseline = Boolean.parseBoolean(options.getOrDefault("baseline", "false"));
+
+        MinecraftServer server = new MinecraftServer();
+        StandInBukkit bukkit = new StandInBukkit(new DedicatedPlayerList(server));
+        ServerConnection serverConnection = server.getServerConnection();
+        serverConnection.a(InetAddress.getLoopbackAddress(), 0);
+
+        LoadStats stats = new LoadStats();
+        TinierProtocol protocol = null;
+        if (!baseline) {
+            protocol = new TinierProtocol(bukkit.getPlugin());
+            protocol.setInHandler((cc, packet) -> {
+                stats.interceptedIn.increment();
+                return packet;
+            });
+            protocol.setOutHandler((cc, packet) -> {
+                stats.interceptedOut.increment();
+                return packet;
+            });
+
+            long start = System.nanoTime();
+            protocol.begin();
+            report("begin()", "%.3f ms", millisSince(start));
+        }
+
+        LoadGenerator generator = new LoadGenerator(serverConnection.getListeningAddress(), threads, rate, stats);
+        long stormStart = System.nanoTime();
+        generator.connect(clients);
+        boolean allConnected = await(() -> stats.connected.get() + stats.failed.get(), clients);
+        report("connection storm", "%d connected, %d failed in %.1f ms%s", stats.connected.get(),
+                stats.failed.get(), millisSince(stormStart), allConnected ? "" : " (timed out)");
+
+        if (rate > 0) {
+            boolean allResponsive = await(stats.responsive::get, stats.connected.get());
+            report("first response", "%d clients in %.1f ms%s", stats.responsive.get(),
+                    millisSince(stormStart), allResponsive ? "" : " (timed out)");
+        }
+
+        long sent = stats.sent.sum();
+        long received = stats.received.sum();
+        long roundTrip = stats.roundTripNanos.sum();
+        long in = stats.interceptedIn.sum();
+        long out = stats.interceptedOut.sum();
+        long sustainStart = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        double seconds = (System.nanoTime() - sustainStart) / 1e9;
+
+        received = stats.received.sum() - received;
+        report("sustained", "%d clients for %.1f s", stats.connected.get(), seconds);
+        report("client sent", "%.0f packets/s", (stats.sent.sum() - sent) / seconds);
+        report("client received", "%.0f packets/s", received / seconds);
+        report("round trip", "%.3f ms mean", received == 0 ? 0 :
+                (stats.roundTripNanos.sum() - roundTrip) / 1e6 / received);
+        if (protocol != null) {
+            report("intercepted in", "%.0f packets/s", (stats.interceptedIn.sum() - in) / seconds);
+            report("intercepted out", "%.0f packets/s", (stats.interceptedOut.sum() - out) / seconds);
+
+            long start = System.nanoTime();
+            protocol.close();
+            report("close()", "%.3f ms with %d connections", millisSince(start),
+                    serverConnection.getConnectionCount());
+        }
+
+        generator.close();
+        serverConnection.b();
+        bukkit.shutdown();
+    }
+
+    /**
+     * Parses options given as {@code --name=value}, where
+     * {@code --name} alone is the same as
+     * {@code --name=true}.
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            }
+
+            int separator = arg.indexOf('=');
+            if (separator < 0) {
+                options.put(arg.substring(2), "true");
+            } else {
+                options.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        return options;
+    }
+
+    /**
+     * Waits until the given count reaches the target, or
+     * until the wait times out.
+     *
+     * @return {@code true} if the target was reached
+     */
+    private static boolean await(IntSupplier count, int target) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + AWAIT_MILLIS;
+        while (count.getAsInt() < target) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+
+            Thread.sleep(1);
+        }
+
+        return true;
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static void report(String name, String format, Object... args) {
+        System.out.printf("%-18s %s%n", name, String.format(format, args));
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by the simulated clients and the
+ * interceptor handlers.
+ */
+final class LoadStats {
+    // Clients which are connected and have handshaken
+    final AtomicInteger connected = new AtomicInteger();
+    // Clients which have received their first keep alive
+    final AtomicInteger responsive = new AtomicInteger();
+    // Clients which could not connect
+    final AtomicInteger failed = new AtomicInteger();
+
+    // Keep alives sent and received by the clients, and the
+    // total time between sending and receiving them
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder roundTripNanos = new LongAdder();
+
+    // Packets seen by the TinierProtocol handlers
+    final LongAdder interceptedIn = new LongAdder();
+    final LongAdder interceptedOut = new LongAdder();
+}
@@ -0,0 +1,91 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.concurrent.ScheduledFuture;
+import net.minecraft.server.v1_15_R1.EnumProtocol;
+import net.minecraft.server.v1_15_R1.NetworkManager;
+import net.minecraft.server.v1_15_R1.Packet;
+import net.minecraft.server.v1_15_R1.PacketHandshakingInSetProtocol;
+import net.minecraft.server.v1_15_R1.PacketPlayInKeepAlive;
+import net.minecraft.server.v1_15_R1.PacketPlayOutKeepAlive;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A client which handshakes, then sends keep alives at a
+ * fixed rate and measures how long the server takes to
+ * answer each of them.
+ */
+final class SimulatedClient extends SimpleChannelInboundHandler<Packet> {
+    // Protocol version of 1.15.2
+    private static final int PROTOCOL_VERSION = 578;
+
+    private final int packetsPerSecond;
+    private final LoadStats stats;
+
+    private ScheduledFuture<?> sendTask;
+    private boolean isResponsive;
+
+    /**
+     * Creates a new client.
+     *
+     * @param packetsPerSecond the number of keep alives to
+     * send each second, or 0 to stay idle
+     * @param stats the counters to update
+     */
+    SimulatedClient(int packetsPerSecond, LoadStats stats) {
+        this.packetsPerSecond = packetsPerSecond;
+        this.stats = stats;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+        // The encoder runs before writeAndFlush returns since
+        // this is the event loop, so the protocol can be
+        // switched straight after
+        InetSocketAddress addr = (InetSocketAddress) ctx.channel().remoteAddress();
+        ctx.channel().attr(NetworkManager.c).set(EnumProtocol.HANDSHAKING);
+        ctx.writeAndFlush(new PacketHandshakingInSetProtocol(PROTOCOL_VERSION,
+                addr.getHostString(), addr.getPort(), EnumProtocol.LOGIN));
+        ctx.channel().attr(NetworkManager.c).set(EnumProtocol.PLAY);
+        this.stats.connected.incrementAndGet();
+
+        if (this.packetsPerSecond > 0) {
+            long periodNanos = TimeUnit.SECONDS.toNanos(1) / this.packetsPerSecond;
+            this.sendTask = ctx.executor().scheduleAtFixedRate(() -> {
+                ctx.writeAndFlush(new PacketPlayInKeepAlive(System.nanoTime()));
+                this.stats.sent.increment();
+            }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+        if (this.sendTask != null) {
+            this.sendTask.cancel(false);
+        }
+
+        this.stats.connected.decrementAndGet();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Packet packet) {
+        if (packet instanceof PacketPlayOutKeepAlive) {
+            long sentNanos = ((PacketPlayOutKeepAlive) packet).getId();
+            this.stats.roundTripNanos.add(System.nanoTime() - sentNanos);
+            this.stats.received.increment();
+
+            if (!this.isResponsive) {
+                this.isResponsive = true;
+                this.stats.responsive.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+}
@@ -0,0 +1,218 @@
+package io.github.caojohnny.tinierprotocol.harness;
+
+import net.minecraft.server.v1_15_R1.DedicatedPlayerList;
+import org.bukkit.Bukkit;
+import org.bukkit.craftbukkit.v1_15_R1.CraftServer;
+import org.bukkit.craftbukkit.v1_15_R1.CraftServerProxy;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The parts of the Bukkit server used by TinierProtocol,
+ * implemented with proxies.
+ *
+ * <p>Methods which are not implemented return
+ * {@code null}, {@code false} or {@code 0}. Scheduled
+ * tasks all run on a single thread which stands in for the
+ * main thread, whether or not they are asynchronous.</p>
+ */
+final class StandInBukkit {
+    // Server ticks are 50ms long
+    private static final long TICK_MILLIS = 50;
+
+    private final Logger logger = Logger.getLogger("LoadHarness");
+    private final AtomicInteger taskIds = new AtomicInteger();
+    private final ScheduledExecutorService mainThread;
+    private volatile Thread mainThreadInst;
+
+    private final CraftServer server;
+    private final Plugin plugin;
+
+    /**
+     * Creates the stand-in server and installs it as the
+     * Bukkit server.
+     *
+     * @param playerList the player list through which
+     * the NMS server is found
+     */
+    StandInBukkit(DedicatedPlayerList playerList) {
+        this.mainThread = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Server thread");
+            thread.setDaemon(true);
+            this.mainThreadInst = thread;
+            return thread;
+        });
+
+        PluginManager pluginManager = proxy(PluginManager.class, null);
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class, this::schedule);
+        this.server = CraftServerProxy.create((o, method, args) -> {
+            switch (method.getName()) {
+                case "getHandle":
+                    return playerList;
+                case "getLogger":
+                    return this.logger;
+                case "getName":
+                    return "LoadHarness";
+                case "getVersion":
+                    return "stand-in";
+                case "getBukkitVersion":
+                    return "1.15.2-R0.1-SNAPSHOT";
+                case "getPluginManager":
+                    return pluginManager;
+                case "getScheduler":
+                    return scheduler;
+                case "isPrimaryThread":
+                    return Thread.currentThread() == this.mainThreadInst;
+                case "getOnlinePlayers":
+                    return Collections.emptyList();
+                default:
+                    return objectMethod(o, method, args);
+            }
+        });
+        Bukkit.setServer(this.server);
+
+        this.plugin = proxy(Plugin.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return "LoadHarness";
+                case "getLogger":
+                    return this.logger;
+                case "getServer":
+                    return this.server;
+                case "isEnabled":
+                    return true;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    Plugin getPlugin() {
+        return this.plugin;
+    }
+
+    Logger getLogger() {
+        return this.logger;
+    }
+
+    /**
+     * Stops running scheduled tasks.
+     */
+    void shutdown() {
+        this.mainThread.shutdownNow();
+    }
+
+    /**
+     * Implements the BukkitScheduler methods that schedule
+     * a Runnable, ignoring the rest.
+     */
+    private Object schedule(Method method, Object[] args) {
+        String name = method.getName();
+        if (!name.startsWith("runTask") || !(args[1] instanceof Runnable)) {
+            return null;
+        }
+
+        Runnable task = (Runnable) args[1];
+        long delay = args.length > 2 ? (long) args[2] : 0;
+        ScheduledFuture<?> future;
+        if (name.startsWith("runTaskTimer")) {
+            long period = Math.max(1, (long) args[3]);
+            future = this.mainThread.scheduleAtFixedRate(task, delay * TICK_MILLIS, period * TICK_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            future = this.mainThread.schedule(task, delay * TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        int taskId = this.taskIds.incrementAndGet();
+        return proxy(BukkitTask.class, (taskMethod, taskArgs) -> {
+            switch (taskMethod.getName()) {
+                case "cancel":
+                    future.cancel(false);
+                    return null;
+                case "isCancelled":
+                    return future.isCancelled();
+                case "getTaskId":
+                    return taskId;
+                case "getOwner":
+                    return this.plugin;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * A partial implementation of an interface's methods.
+     */
+    private interface Implementation {
+        /**
+         * Implements the given method.
+         *
+         * @param method the method being called
+         * @param args the arguments, or {@code null} if none
+         * @return the return value, where {@code null} is
+         * replaced with the default value of primitives
+         */
+        Object invoke(Method method, Object[] args);
+    }
+
+    /**
+     * Creates a proxy for the given interface.
+     *
+     * @param cls the interface to implement
+     * @param implementation the implemented methods, or
+     * {@code null} if all methods do nothing
+     * @param <T> the type of the interface
+     * @return the proxy
+     */
+    private static <T> T proxy(Class<T> cls, Implementation implementation) {
+        return cls.cast(Proxy.newProxyInstance(cls.getClassLoader(), new Class<?>[]{cls}, (o, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return objectMethod(o, method, args);
+            }
+
+            Object result = implementation == null ? null : implementation.invoke(method, args);
+            return result == null ? defaultValue(method.getReturnType()) : result;
+        }));
+    }
+
+    /**
+     * Implements the methods of Object for a proxy, and
+     * returns the default value for any other method.
+     */
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getInterfaces()[0].getSimpleName() + "@" +
+                        Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                return defaultValue(method.getReturnType());
+        }
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        }
+
+        // The only element of a new primitive array is the default value
+        return Array.get(Array.newInstance(type, 1), 0);
+    }
+}
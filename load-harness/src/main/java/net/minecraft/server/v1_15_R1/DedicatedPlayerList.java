@@ -0,0 +1,17 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS player list, through which the
+ * server is found from the Bukkit server.
+ */
+public class DedicatedPlayerList {
+    private final MinecraftServer server;
+
+    public DedicatedPlayerList(MinecraftServer server) {
+        this.server = server;
+    }
+
+    public MinecraftServer getServer() {
+        return this.server;
+    }
+}
@@ -0,0 +1,12 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS player entity.
+ */
+public class EntityPlayer {
+    public PlayerConnection playerConnection;
+
+    public EntityPlayer(PlayerConnection playerConnection) {
+        this.playerConnection = playerConnection;
+    }
+}
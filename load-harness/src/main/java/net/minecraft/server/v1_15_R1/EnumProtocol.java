@@ -0,0 +1,132 @@
+package net.minecraft.server.v1_15_R1;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Stand-in for the NMS protocol phases, registering only
+ * the packets used by the load harness.
+ */
+public enum EnumProtocol {
+    HANDSHAKING(-1),
+    PLAY(0),
+    STATUS(1),
+    LOGIN(2);
+
+    // The protocol of each registered packet class
+    private static final Map<Class<?>, EnumProtocol> BY_PACKET = new HashMap<>();
+
+    static {
+        HANDSHAKING.register(EnumProtocolDirection.SERVERBOUND, 0x00,
+                PacketHandshakingInSetProtocol.class, PacketHandshakingInSetProtocol::new);
+        PLAY.register(EnumProtocolDirection.SERVERBOUND, 0x0F,
+                PacketPlayInKeepAlive.class, PacketPlayInKeepAlive::new);
+        PLAY.register(EnumProtocolDirection.SERVERBOUND, 0x11,
+                PacketPlayInFlying.class, PacketPlayInFlying::new);
+        PLAY.register(EnumProtocolDirection.CLIENTBOUND, 0x21,
+                PacketPlayOutKeepAlive.class, PacketPlayOutKeepAlive::new);
+        PLAY.register(EnumProtocolDirection.CLIENTBOUND, 0x22,
+                PacketPlayOutMapChunk.class, PacketPlayOutMapChunk::new);
+        PLAY.register(EnumProtocolDirection.CLIENTBOUND, 0x38,
+                PacketPlayOutEntityDestroy.class, PacketPlayOutEntityDestroy::new);
+        PLAY.register(EnumProtocolDirection.CLIENTBOUND, 0x46,
+                PacketPlayOutEntityVelocity.class, PacketPlayOutEntityVelocity::new);
+        PLAY.register(EnumProtocolDirection.CLIENTBOUND, 0x4B,
+                PacketPlayOutMount.class, PacketPlayOutMount::new);
+        LOGIN.register(EnumProtocolDirection.CLIENTBOUND, 0x02,
+                PacketLoginOutSuccess.class, PacketLoginOutSuccess::new);
+        LOGIN.register(EnumProtocolDirection.CLIENTBOUND, 0x03,
+                PacketLoginOutSetCompression.class, PacketLoginOutSetCompression::new);
+    }
+
+    private final int id;
+    private final Map<EnumProtocolDirection, Map<Class<?>, Integer>> packetIds =
+            new EnumMap<>(EnumProtocolDirection.class);
+    private final Map<EnumProtocolDirection, List<Supplier<? extends Packet>>> packetFactories =
+            new EnumMap<>(EnumProtocolDirection.class);
+
+    EnumProtocol(int id) {
+        this.id = id;
+        for (EnumProtocolDirection direction : EnumProtocolDirection.values()) {
+            this.packetIds.put(direction, new HashMap<>());
+            this.packetFactories.put(direction, new ArrayList<>());
+        }
+    }
+
+    private <T extends Packet> void register(EnumProtocolDirection direction, int packetId,
+                                             Class<T> packetCls, Supplier<T> factory) {
+        List<Supplier<? extends Packet>> factories = this.packetFactories.get(direction);
+        while (factories.size() <= packetId) {
+            factories.add(null);
+        }
+
+        factories.set(packetId, factory);
+        this.packetIds.get(direction).put(packetCls, packetId);
+        BY_PACKET.put(packetCls, this);
+    }
+
+    /**
+     * Obtains the ID of the given packet in this protocol.
+     *
+     * @param direction the direction the packet is sent
+     * @param packet the packet
+     * @return the packet ID, or {@code null} if it is not
+     * registered
+     */
+    public Integer a(EnumProtocolDirection direction, Packet packet) {
+        return this.packetIds.get(direction).get(packet.getClass());
+    }
+
+    /**
+     * Creates an empty packet with the given ID.
+     *
+     * @param direction the direction the packet is sent
+     * @param packetId the packet ID
+     * @return the new packet, or {@code null} if the ID is
+     * not registered
+     */
+    public Packet a(EnumProtocolDirection direction, int packetId) {
+        List<Supplier<? extends Packet>> factories = this.packetFactories.get(direction);
+        if (packetId < 0 || packetId >= factories.size() || factories.get(packetId) == null) {
+            return null;
+        }
+
+        return factories.get(packetId).get();
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Obtains the protocol with the given handshake ID.
+     *
+     * @param id the ID
+     * @return the protocol, or {@code null} if none has
+     * the ID
+     */
+    public static EnumProtocol a(int id) {
+        for (EnumProtocol protocol : values()) {
+            if (protocol.id == id) {
+                return protocol;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Obtains the protocol that the given packet belongs
+     * to.
+     *
+     * @param packet the packet
+     * @return the protocol of the packet
+     */
+    public static EnumProtocol a(Packet packet) {
+        return BY_PACKET.get(packet.getClass());
+    }
+}
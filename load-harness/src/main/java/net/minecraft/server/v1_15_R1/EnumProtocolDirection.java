@@ -0,0 +1,9 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS packet direction.
+ */
+public enum EnumProtocolDirection {
+    SERVERBOUND,
+    CLIENTBOUND
+}
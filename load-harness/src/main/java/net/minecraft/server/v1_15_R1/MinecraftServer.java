@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS server, which only holds the
+ * server connection.
+ */
+public class MinecraftServer {
+    private final ServerConnection serverConnection = new ServerConnection(this);
+
+    public ServerConnection getServerConnection() {
+        return this.serverConnection;
+    }
+}
@@ -0,0 +1,135 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+/**
+ * Stand-in for the NMS connection handler, which is the
+ * {@code packet_handler} at the end of each pipeline.
+ *
+ * <p>The stand-in skips the status and login phases,
+ * switching a connection straight to play once it has
+ * handshaken, and answers each keep alive with a keep
+ * alive carrying the same ID.</p>
+ */
+public class NetworkManager extends SimpleChannelInboundHandler<Packet> {
+    public static final AttributeKey<EnumProtocol> c = AttributeKey.valueOf("protocol");
+
+    private final EnumProtocolDirection direction;
+    public Channel channel;
+    private volatile PlayerConnection playerConnection;
+
+    public NetworkManager(EnumProtocolDirection direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        super.channelActive(ctx);
+        this.channel = ctx.channel();
+        this.setProtocol(EnumProtocol.HANDSHAKING);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        ctx.close();
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, Packet packet) {
+        if (packet instanceof PacketHandshakingInSetProtocol) {
+            this.setProtocol(EnumProtocol.PLAY);
+            this.playerConnection = new PlayerConnection(this);
+        } else if (packet instanceof PacketPlayInKeepAlive) {
+            this.sendPacket(new PacketPlayOutKeepAlive(((PacketPlayInKeepAlive) packet).getId()));
+        }
+    }
+
+    /**
+     * Sets the protocol used to encode and decode packets
+     * on this connection.
+     *
+     * @param protocol the protocol
+     */
+    public void setProtocol(EnumProtocol protocol) {
+        this.channel.attr(c).set(protocol);
+    }
+
+    /**
+     * Sends the given packet, switching the protocol of
+     * the connection to that of the packet first like the
+     * server does.
+     *
+     * @param packet the packet to send
+     */
+    public void sendPacket(Packet packet) {
+        this.sendPacket(packet, null);
+    }
+
+    /**
+     * Sends the given packet and notifies the given
+     * listener once it has been written.
+     *
+     * @param packet the packet to send
+     * @param listener the listener, or {@code null}
+     */
+    public void sendPacket(Packet packet, GenericFutureListener<? extends Future<? super Void>> listener) {
+        if (this.channel.eventLoop().inEventLoop()) {
+            this.dispatchPacket(packet, listener);
+        } else {
+            this.channel.eventLoop().execute(() -> this.dispatchPacket(packet, listener));
+        }
+    }
+
+    private void dispatchPacket(Packet packet, GenericFutureListener<? extends Future<? super Void>> listener) {
+        EnumProtocol protocol = EnumProtocol.a(packet);
+        if (protocol != this.channel.attr(c).get()) {
+            this.setProtocol(protocol);
+        }
+
+        ChannelFuture future = this.channel.writeAndFlush(packet);
+        if (listener != null) {
+            future.addListener(listener);
+        }
+    }
+
+    /**
+     * Compresses frames at least as large as the given
+     * threshold from now on.
+     *
+     * <p>Unlike the server, the stand-in does not add a
+     * decompressor, so clients must not send anything
+     * once compression is enabled.</p>
+     *
+     * @param threshold the compression threshold, or a
+     * negative value to disable compression
+     */
+    public void setCompressionLevel(int threshold) {
+        ChannelPipeline pipeline = this.channel.pipeline();
+        ChannelHandler compressor = pipeline.get("compress");
+        if (threshold < 0) {
+            if (compressor != null) {
+                pipeline.remove("compress");
+            }
+        } else if (compressor instanceof PacketCompressor) {
+            ((PacketCompressor) compressor).a(threshold);
+        } else {
+            pipeline.addBefore("encoder", "compress", new PacketCompressor(threshold));
+        }
+    }
+
+    public EnumProtocolDirection getDirection() {
+        return this.direction;
+    }
+
+    public PlayerConnection getPlayerConnection() {
+        return this.playerConnection;
+    }
+}
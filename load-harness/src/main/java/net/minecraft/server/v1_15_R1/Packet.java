@@ -0,0 +1,24 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS packet interface.
+ *
+ * <p>Only the names that {@code TinierProtocol} looks up
+ * reflectively match the obfuscated server; everything
+ * else in the stand-in classes is named plainly.</p>
+ */
+public interface Packet {
+    /**
+     * Reads the packet content from the given serializer.
+     *
+     * @param serializer the serializer to read from
+     */
+    void a(PacketDataSerializer serializer);
+
+    /**
+     * Writes the packet content to the given serializer.
+     *
+     * @param serializer the serializer to write to
+     */
+    void b(PacketDataSerializer serializer);
+}
@@ -0,0 +1,51 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.util.zip.Deflater;
+
+/**
+ * Stand-in for the handler which compresses frames at
+ * least as large as the threshold, prefixing each frame
+ * with its uncompressed length or 0 if it is not
+ * compressed.
+ */
+public class PacketCompressor extends MessageToByteEncoder<ByteBuf> {
+    private final byte[] a = new byte[8192];
+    private final Deflater b = new Deflater();
+    private int c;
+
+    public PacketCompressor(int threshold) {
+        this.c = threshold;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) {
+        int length = in.readableBytes();
+        PacketDataSerializer serializer = new PacketDataSerializer(out);
+        if (length < this.c) {
+            serializer.writeVarInt(0);
+            out.writeBytes(in);
+            return;
+        }
+
+        byte[] input = new byte[length];
+        in.readBytes(input);
+        serializer.writeVarInt(input.length);
+
+        this.b.setInput(input, 0, length);
+        this.b.finish();
+        while (!this.b.finished()) {
+            int deflated = this.b.deflate(this.a);
+            out.writeBytes(this.a, 0, deflated);
+        }
+
+        this.b.reset();
+    }
+
+    public void a(int threshold) {
+        this.c = threshold;
+    }
+}
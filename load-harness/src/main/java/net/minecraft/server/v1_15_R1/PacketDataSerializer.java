@@ -0,0 +1,76 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stand-in for the NMS packet serializer, which wraps
+ * rather than extends a {@link ByteBuf}.
+ */
+public class PacketDataSerializer {
+    private final ByteBuf buf;
+
+    public PacketDataSerializer(ByteBuf buf) {
+        this.buf = buf;
+    }
+
+    public ByteBuf getBuffer() {
+        return this.buf;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = this.buf.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalStateException("VarInt too big");
+    }
+
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            this.buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        this.buf.writeByte(value);
+    }
+
+    public String readString(int maxLength) {
+        int length = this.readVarInt();
+        if (length > maxLength * 4 || length < 0) {
+            throw new IllegalStateException("String length " + length + " out of bounds");
+        }
+
+        String value = this.buf.toString(this.buf.readerIndex(), length, StandardCharsets.UTF_8);
+        this.buf.skipBytes(length);
+        return value;
+    }
+
+    public void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        this.writeVarInt(bytes.length);
+        this.buf.writeBytes(bytes);
+    }
+
+    public int readUnsignedShort() {
+        return this.buf.readUnsignedShort();
+    }
+
+    public void writeShort(int value) {
+        this.buf.writeShort(value);
+    }
+
+    public long readLong() {
+        return this.buf.readLong();
+    }
+
+    public void writeLong(long value) {
+        this.buf.writeLong(value);
+    }
+}
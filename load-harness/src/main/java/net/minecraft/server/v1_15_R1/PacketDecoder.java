@@ -0,0 +1,42 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Stand-in for the handler which decodes frames into
+ * packets of the channel's current protocol.
+ */
+public class PacketDecoder extends ByteToMessageDecoder {
+    private final EnumProtocolDirection direction;
+
+    public PacketDecoder(EnumProtocolDirection direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws IOException {
+        if (!in.isReadable()) {
+            return;
+        }
+
+        PacketDataSerializer serializer = new PacketDataSerializer(in);
+        int packetId = serializer.readVarInt();
+        EnumProtocol protocol = ctx.channel().attr(NetworkManager.c).get();
+        Packet packet = protocol.a(this.direction, packetId);
+        if (packet == null) {
+            throw new IOException("Bad packet id " + packetId + " in " + protocol);
+        }
+
+        packet.a(serializer);
+        if (in.isReadable()) {
+            throw new IOException(in.readableBytes() + " extra bytes after packet " + packetId);
+        }
+
+        out.add(packet);
+    }
+}
@@ -0,0 +1,32 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+import java.io.IOException;
+
+/**
+ * Stand-in for the handler which encodes packets of the
+ * channel's current protocol.
+ */
+public class PacketEncoder extends MessageToByteEncoder<Packet> {
+    private final EnumProtocolDirection direction;
+
+    public PacketEncoder(EnumProtocolDirection direction) {
+        this.direction = direction;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Packet packet, ByteBuf out) throws IOException {
+        EnumProtocol protocol = ctx.channel().attr(NetworkManager.c).get();
+        Integer packetId = protocol.a(this.direction, packet);
+        if (packetId == null) {
+            throw new IOException("Can't serialize unregistered packet " + packet.getClass().getSimpleName());
+        }
+
+        PacketDataSerializer serializer = new PacketDataSerializer(out);
+        serializer.writeVarInt(packetId);
+        packet.b(serializer);
+    }
+}
@@ -0,0 +1,46 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the handshake packet, the first packet sent
+ * by every client.
+ */
+public class PacketHandshakingInSetProtocol implements Packet {
+    private int a;
+    public String hostname;
+    public int port;
+    private EnumProtocol d;
+
+    public PacketHandshakingInSetProtocol() {
+    }
+
+    public PacketHandshakingInSetProtocol(int protocolVersion, String hostname, int port, EnumProtocol nextProtocol) {
+        this.a = protocolVersion;
+        this.hostname = hostname;
+        this.port = port;
+        this.d = nextProtocol;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+        this.hostname = serializer.readString(255);
+        this.port = serializer.readUnsignedShort();
+        this.d = EnumProtocol.a(serializer.readVarInt());
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+        serializer.writeString(this.hostname);
+        serializer.writeShort(this.port);
+        serializer.writeVarInt(this.d.getId());
+    }
+
+    public int getProtocolVersion() {
+        return this.a;
+    }
+
+    public EnumProtocol getNextProtocol() {
+        return this.d;
+    }
+}
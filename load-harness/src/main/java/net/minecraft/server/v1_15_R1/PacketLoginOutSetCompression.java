@@ -0,0 +1,26 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the packet which enables compression, only
+ * sent by the compression check.
+ */
+public class PacketLoginOutSetCompression implements Packet {
+    private int a;
+
+    public PacketLoginOutSetCompression() {
+    }
+
+    public PacketLoginOutSetCompression(int threshold) {
+        this.a = threshold;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+    }
+}
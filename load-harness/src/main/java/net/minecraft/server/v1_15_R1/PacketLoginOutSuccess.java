@@ -0,0 +1,33 @@
+package net.minecraft.server.v1_15_R1;
+
+import java.util.UUID;
+
+/**
+ * Stand-in for the packet which tells a client that it
+ * has logged in. The stand-in server never sends it since
+ * it skips the login phase.
+ */
+public class PacketLoginOutSuccess implements Packet {
+    private UUID a;
+    private String b;
+
+    public PacketLoginOutSuccess() {
+    }
+
+    public PacketLoginOutSuccess(UUID uuid, String name) {
+        this.a = uuid;
+        this.b = name;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = UUID.fromString(serializer.readString(36));
+        this.b = serializer.readString(16);
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeString(this.a.toString());
+        serializer.writeString(this.b);
+    }
+}
@@ -0,0 +1,26 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the serverbound movement packet, which the
+ * stand-in server ignores.
+ */
+public class PacketPlayInFlying implements Packet {
+    private boolean f;
+
+    public PacketPlayInFlying() {
+    }
+
+    public PacketPlayInFlying(boolean onGround) {
+        this.f = onGround;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.f = serializer.getBuffer().readBoolean();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.getBuffer().writeBoolean(this.f);
+    }
+}
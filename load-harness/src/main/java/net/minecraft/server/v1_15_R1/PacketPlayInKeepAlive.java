@@ -0,0 +1,29 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the serverbound keep alive packet.
+ */
+public class PacketPlayInKeepAlive implements Packet {
+    private long a;
+
+    public PacketPlayInKeepAlive() {
+    }
+
+    public PacketPlayInKeepAlive(long id) {
+        this.a = id;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readLong();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeLong(this.a);
+    }
+
+    public long getId() {
+        return this.a;
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet animating an entity.
+ */
+public class PacketPlayOutAnimation extends SingleEntityPacket {
+    public PacketPlayOutAnimation() {
+    }
+
+    public PacketPlayOutAnimation(int entityId) {
+        super(entityId);
+    }
+}
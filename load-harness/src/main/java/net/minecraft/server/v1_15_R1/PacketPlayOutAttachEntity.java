@@ -0,0 +1,29 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet attaching an entity to its holder.
+ */
+public class PacketPlayOutAttachEntity implements Packet {
+    private int a;
+    private int b;
+
+    public PacketPlayOutAttachEntity() {
+    }
+
+    public PacketPlayOutAttachEntity(int entityId, int holderId) {
+        this.a = entityId;
+        this.b = holderId;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+        this.b = serializer.readVarInt();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+        serializer.writeVarInt(this.b);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet showing an entity breaking a block.
+ */
+public class PacketPlayOutBlockBreakAnimation extends SingleEntityPacket {
+    public PacketPlayOutBlockBreakAnimation() {
+    }
+
+    public PacketPlayOutBlockBreakAnimation(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,29 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet showing an item being collected by an entity.
+ */
+public class PacketPlayOutCollect implements Packet {
+    private int a;
+    private int b;
+
+    public PacketPlayOutCollect() {
+    }
+
+    public PacketPlayOutCollect(int itemId, int collectorId) {
+        this.a = itemId;
+        this.b = collectorId;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+        this.b = serializer.readVarInt();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+        serializer.writeVarInt(this.b);
+    }
+}
@@ -0,0 +1,41 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet moving an entity,
+ * along with the packets for each kind of movement.
+ */
+public class PacketPlayOutEntity extends SingleEntityPacket {
+    public PacketPlayOutEntity() {
+    }
+
+    public PacketPlayOutEntity(int entityId) {
+        super(entityId);
+    }
+
+    public static class PacketPlayOutRelEntityMove extends PacketPlayOutEntity {
+        public PacketPlayOutRelEntityMove() {
+        }
+
+        public PacketPlayOutRelEntityMove(int entityId) {
+            super(entityId);
+        }
+    }
+
+    public static class PacketPlayOutRelEntityMoveLook extends PacketPlayOutEntity {
+        public PacketPlayOutRelEntityMoveLook() {
+        }
+
+        public PacketPlayOutRelEntityMoveLook(int entityId) {
+            super(entityId);
+        }
+    }
+
+    public static class PacketPlayOutEntityLook extends PacketPlayOutEntity {
+        public PacketPlayOutEntityLook() {
+        }
+
+        public PacketPlayOutEntityLook(int entityId) {
+            super(entityId);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet destroying entities on the client.
+ */
+public class PacketPlayOutEntityDestroy implements Packet {
+    private int[] a;
+
+    public PacketPlayOutEntityDestroy() {
+    }
+
+    public PacketPlayOutEntityDestroy(int... entityIds) {
+        this.a = entityIds;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = new int[serializer.readVarInt()];
+        for (int i = 0; i < this.a.length; i++) {
+            this.a[i] = serializer.readVarInt();
+        }
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a.length);
+        for (int entityId : this.a) {
+            serializer.writeVarInt(entityId);
+        }
+    }
+
+    public int[] getEntityIds() {
+        return this.a;
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet applying an effect to an entity.
+ */
+public class PacketPlayOutEntityEffect extends SingleEntityPacket {
+    public PacketPlayOutEntityEffect() {
+    }
+
+    public PacketPlayOutEntityEffect(int entityId) {
+        super(entityId);
+    }
+}
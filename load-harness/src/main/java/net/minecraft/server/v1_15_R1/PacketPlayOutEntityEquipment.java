@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet updating the equipment of an entity.
+ */
+public class PacketPlayOutEntityEquipment extends SingleEntityPacket {
+    public PacketPlayOutEntityEquipment() {
+    }
+
+    public PacketPlayOutEntityEquipment(int entityId) {
+        super(entityId);
+    }
+}
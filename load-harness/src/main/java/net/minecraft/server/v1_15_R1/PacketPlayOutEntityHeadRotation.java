@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet rotating the head of an entity.
+ */
+public class PacketPlayOutEntityHeadRotation extends SingleEntityPacket {
+    public PacketPlayOutEntityHeadRotation() {
+    }
+
+    public PacketPlayOutEntityHeadRotation(int entityId) {
+        super(entityId);
+    }
+}
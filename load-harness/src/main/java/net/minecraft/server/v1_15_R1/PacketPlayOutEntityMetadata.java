@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet updating the metadata of an entity.
+ */
+public class PacketPlayOutEntityMetadata extends SingleEntityPacket {
+    public PacketPlayOutEntityMetadata() {
+    }
+
+    public PacketPlayOutEntityMetadata(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet sending the status of an entity.
+ */
+public class PacketPlayOutEntityStatus extends SingleEntityPacket {
+    public PacketPlayOutEntityStatus() {
+    }
+
+    public PacketPlayOutEntityStatus(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet teleporting an entity.
+ */
+public class PacketPlayOutEntityTeleport extends SingleEntityPacket {
+    public PacketPlayOutEntityTeleport() {
+    }
+
+    public PacketPlayOutEntityTeleport(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet setting the velocity of an entity.
+ */
+public class PacketPlayOutEntityVelocity extends SingleEntityPacket {
+    public PacketPlayOutEntityVelocity() {
+    }
+
+    public PacketPlayOutEntityVelocity(int entityId) {
+        super(entityId);
+    }
+}
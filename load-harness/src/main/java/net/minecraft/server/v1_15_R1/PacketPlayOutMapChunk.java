@@ -0,0 +1,36 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound chunk packet, carrying an
+ * opaque block of chunk data.
+ */
+public class PacketPlayOutMapChunk implements Packet {
+    private int a;
+    private int b;
+    private byte[] f;
+
+    public PacketPlayOutMapChunk() {
+    }
+
+    public PacketPlayOutMapChunk(int x, int z, byte[] data) {
+        this.a = x;
+        this.b = z;
+        this.f = data;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.getBuffer().readInt();
+        this.b = serializer.getBuffer().readInt();
+        this.f = new byte[serializer.readVarInt()];
+        serializer.getBuffer().readBytes(this.f);
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.getBuffer().writeInt(this.a);
+        serializer.getBuffer().writeInt(this.b);
+        serializer.writeVarInt(this.f.length);
+        serializer.getBuffer().writeBytes(this.f);
+    }
+}
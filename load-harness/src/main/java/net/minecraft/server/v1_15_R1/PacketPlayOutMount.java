@@ -0,0 +1,39 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet mounting passengers onto a vehicle.
+ */
+public class PacketPlayOutMount implements Packet {
+    private int a;
+    private int[] b;
+
+    public PacketPlayOutMount() {
+    }
+
+    public PacketPlayOutMount(int vehicleId, int... passengerIds) {
+        this.a = vehicleId;
+        this.b = passengerIds;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+        this.b = new int[serializer.readVarInt()];
+        for (int i = 0; i < this.b.length; i++) {
+            this.b[i] = serializer.readVarInt();
+        }
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+        serializer.writeVarInt(this.b.length);
+        for (int passengerId : this.b) {
+            serializer.writeVarInt(passengerId);
+        }
+    }
+
+    public int[] getPassengerIds() {
+        return this.b;
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning a player.
+ */
+public class PacketPlayOutNamedEntitySpawn extends SingleEntityPacket {
+    public PacketPlayOutNamedEntitySpawn() {
+    }
+
+    public PacketPlayOutNamedEntitySpawn(int entityId) {
+        super(entityId);
+    }
+}
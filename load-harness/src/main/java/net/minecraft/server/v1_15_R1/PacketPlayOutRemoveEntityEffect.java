@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet removing an effect from an entity.
+ */
+public class PacketPlayOutRemoveEntityEffect extends SingleEntityPacket {
+    public PacketPlayOutRemoveEntityEffect() {
+    }
+
+    public PacketPlayOutRemoveEntityEffect(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning an object entity.
+ */
+public class PacketPlayOutSpawnEntity extends SingleEntityPacket {
+    public PacketPlayOutSpawnEntity() {
+    }
+
+    public PacketPlayOutSpawnEntity(int entityId) {
+        super(entityId);
+    }
+}
@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning an experience orb.
+ */
+public class PacketPlayOutSpawnEntityExperienceOrb extends SingleEntityPacket {
+    public PacketPlayOutSpawnEntityExperienceOrb() {
+    }
+
+    public PacketPlayOutSpawnEntityExperienceOrb(int entityId) {
+        super(entityId);
+    }
+}
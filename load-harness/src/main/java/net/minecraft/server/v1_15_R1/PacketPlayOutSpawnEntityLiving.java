@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning a living entity.
+ */
+public class PacketPlayOutSpawnEntityLiving extends SingleEntityPacket {
+    public PacketPlayOutSpawnEntityLiving() {
+    }
+
+    public PacketPlayOutSpawnEntityLiving(int entityId) {
+        super(entityId);
+    }
+}
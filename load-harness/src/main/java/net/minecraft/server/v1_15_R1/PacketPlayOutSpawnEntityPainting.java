@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning a painting.
+ */
+public class PacketPlayOutSpawnEntityPainting extends SingleEntityPacket {
+    public PacketPlayOutSpawnEntityPainting() {
+    }
+
+    public PacketPlayOutSpawnEntityPainting(int entityId) {
+        super(entityId);
+    }
+}
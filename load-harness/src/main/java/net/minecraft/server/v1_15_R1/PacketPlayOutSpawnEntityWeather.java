@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet spawning a lightning bolt.
+ */
+public class PacketPlayOutSpawnEntityWeather extends SingleEntityPacket {
+    public PacketPlayOutSpawnEntityWeather() {
+    }
+
+    public PacketPlayOutSpawnEntityWeather(int entityId) {
+        super(entityId);
+    }
+}
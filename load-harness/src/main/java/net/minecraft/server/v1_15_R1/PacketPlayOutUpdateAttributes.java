@@ -0,0 +1,13 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the clientbound packet updating the attributes of an entity.
+ */
+public class PacketPlayOutUpdateAttributes extends SingleEntityPacket {
+    public PacketPlayOutUpdateAttributes() {
+    }
+
+    public PacketPlayOutUpdateAttributes(int entityId) {
+        super(entityId);
+    }
+}
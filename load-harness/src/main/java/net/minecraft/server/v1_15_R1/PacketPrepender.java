@@ -0,0 +1,18 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * Stand-in for the handler which prefixes each frame with
+ * its VarInt length.
+ */
+public class PacketPrepender extends MessageToByteEncoder<ByteBuf> {
+    @Override
+    protected void encode(ChannelHandlerContext ctx, ByteBuf in, ByteBuf out) {
+        PacketDataSerializer serializer = new PacketDataSerializer(out);
+        serializer.writeVarInt(in.readableBytes());
+        out.writeBytes(in);
+    }
+}
@@ -0,0 +1,41 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+
+/**
+ * Stand-in for the handler which splits the stream into
+ * frames prefixed by their VarInt length.
+ */
+public class PacketSplitter extends ByteToMessageDecoder {
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        in.markReaderIndex();
+
+        int length = 0;
+        for (int i = 0; i < 3; i++) {
+            if (!in.isReadable()) {
+                in.resetReaderIndex();
+                return;
+            }
+
+            byte b = in.readByte();
+            length |= (b & 0x7F) << (i * 7);
+            if ((b & 0x80) == 0) {
+                if (in.readableBytes() < length) {
+                    in.resetReaderIndex();
+                    return;
+                }
+
+                out.add(in.readRetainedSlice(length));
+                return;
+            }
+        }
+
+        throw new CorruptedFrameException("length wider than 21-bit");
+    }
+}
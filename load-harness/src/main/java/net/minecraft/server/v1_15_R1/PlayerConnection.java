@@ -0,0 +1,16 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Stand-in for the NMS play connection of a player.
+ */
+public class PlayerConnection {
+    public final NetworkManager networkManager;
+
+    public PlayerConnection(NetworkManager networkManager) {
+        this.networkManager = networkManager;
+    }
+
+    public void sendPacket(Packet packet) {
+        this.networkManager.sendPacket(packet);
+    }
+}
@@ -0,0 +1,119 @@
+package net.minecraft.server.v1_15_R1;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for the NMS server connection, which listens
+ * for clients and builds their pipelines with the same
+ * handler names as the server.
+ *
+ * <p>The stand-in does not add the {@code legacy_query}
+ * handler. The compression handler is only added by
+ * {@link NetworkManager#setCompressionLevel(int)}.</p>
+ */
+public class ServerConnection {
+    private final MinecraftServer server;
+    private final EventLoopGroup eventLoops = new NioEventLoopGroup(0,
+            new DefaultThreadFactory("Netty Server IO", true));
+    private final List<ChannelFuture> listeningChannels = Collections.synchronizedList(new ArrayList<>());
+    private final List<NetworkManager> connectedChannels = Collections.synchronizedList(new ArrayList<>());
+
+    public ServerConnection(MinecraftServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts listening for clients on the given address.
+     *
+     * @param address the address to bind to
+     * @param port the port to bind to, or 0 for any
+     */
+    public void a(InetAddress address, int port) {
+        ChannelFuture future = new ServerBootstrap()
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel channel) {
+                        channel.config().setOption(ChannelOption.TCP_NODELAY, true);
+                        setupChannel(channel);
+                    }
+                })
+                .group(this.eventLoops)
+                .localAddress(address, port)
+                .bind()
+                .syncUninterruptibly();
+        this.listeningChannels.add(future);
+    }
+
+    /**
+     * Adds the server's handlers to the given channel and
+     * tracks it as a connection.
+     *
+     * @param channel the channel to set up
+     * @return the connection handler of the channel
+     */
+    public NetworkManager setupChannel(Channel channel) {
+        channel.pipeline()
+                .addLast("timeout", new ReadTimeoutHandler(30))
+                .addLast("splitter", new PacketSplitter())
+                .addLast("decoder", new PacketDecoder(EnumProtocolDirection.SERVERBOUND))
+                .addLast("prepender", new PacketPrepender())
+                .addLast("encoder", new PacketEncoder(EnumProtocolDirection.CLIENTBOUND));
+
+        NetworkManager networkManager = new NetworkManager(EnumProtocolDirection.SERVERBOUND);
+        this.connectedChannels.add(networkManager);
+        channel.closeFuture().addListener(f -> this.connectedChannels.remove(networkManager));
+        channel.pipeline().addLast("packet_handler", networkManager);
+
+        return networkManager;
+    }
+
+    /**
+     * Obtains the address the first listening channel is
+     * bound to.
+     *
+     * @return the bound address
+     */
+    public SocketAddress getListeningAddress() {
+        return this.listeningChannels.get(0).channel().localAddress();
+    }
+
+    /**
+     * Obtains the number of clients currently connected.
+     *
+     * @return the number of connections
+     */
+    public int getConnectionCount() {
+        return this.connectedChannels.size();
+    }
+
+    /**
+     * Stops listening and closes every connection.
+     */
+    public void b() {
+        synchronized (this.listeningChannels) {
+            for (ChannelFuture future : this.listeningChannels) {
+                future.channel().close().syncUninterruptibly();
+            }
+
+            this.listeningChannels.clear();
+        }
+
+        this.eventLoops.shutdownGracefully().syncUninterruptibly();
+    }
+}
@@ -0,0 +1,34 @@
+package net.minecraft.server.v1_15_R1;
+
+/**
+ * Base of the stand-ins for the clientbound packets about
+ * a single entity, which only hold the entity ID.
+ *
+ * <p>The ID is held in the field from which
+ * {@code TinierProtocol} reads it, which the server's
+ * packets each declare themselves.</p>
+ */
+public abstract class SingleEntityPacket implements Packet {
+    protected int a;
+
+    protected SingleEntityPacket() {
+    }
+
+    protected SingleEntityPacket(int entityId) {
+        this.a = entityId;
+    }
+
+    @Override
+    public void a(PacketDataSerializer serializer) {
+        this.a = serializer.readVarInt();
+    }
+
+    @Override
+    public void b(PacketDataSerializer serializer) {
+        serializer.writeVarInt(this.a);
+    }
+
+    public int getEntityId() {
+        return this.a;
+    }
+}
@@ -0,0 +1,13 @@
+package org.bukkit.craftbukkit.v1_15_R1;
+
+import net.minecraft.server.v1_15_R1.DedicatedPlayerList;
+import org.bukkit.Server;
+
+/**
+ * Stand-in for the CraftBukkit server, implemented by a
+ * proxy from {@link CraftServerProxy} rather than a class
+ * so that the whole Bukkit API does not have to be stubbed.
+ */
+public interface CraftServer extends Server {
+    DedicatedPlayerList getHandle();
+}
@@ -0,0 +1,30 @@
+package org.bukkit.craftbukkit.v1_15_R1;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+
+/**
+ * Creates stand-in {@link CraftServer} instances.
+ */
+public final class CraftServerProxy {
+    // Proxies implementing a non-public interface are defined in its
+    // package, which TinierProtocol reads the server version from
+    interface PackageAnchor {
+    }
+
+    private CraftServerProxy() {
+    }
+
+    /**
+     * Creates a new server that passes all method calls to
+     * the given handler.
+     *
+     * @param handler the handler which implements the
+     * server
+     * @return the new server
+     */
+    public static CraftServer create(InvocationHandler handler) {
+        return (CraftServer) Proxy.newProxyInstance(CraftServerProxy.class.getClassLoader(),
+                new Class<?>[]{CraftServer.class, PackageAnchor.class}, handler);
+    }
+}
@@ -0,0 +1,19 @@
+package org.bukkit.craftbukkit.v1_15_R1.entity;
+
+import net.minecraft.server.v1_15_R1.EntityPlayer;
+
+/**
+ * Stand-in for the CraftBukkit player. The load harness
+ * has no players, so this only exists to be looked up.
+ */
+public class CraftPlayer {
+    private final EntityPlayer entity;
+
+    public CraftPlayer(EntityPlayer entity) {
+        this.entity = entity;
+    }
+
+    public EntityPlayer getHandle() {
+        return this.entity;
+    }
+}
@@ -12,17 +12,53 @@ import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
 
 /**
  * TinierProtocol - Bukkit-ONLY re-work of TinyProtocol,
@@ -42,7 +78,8 @@ import java.util.function.BiFunction;
  * <p>This class provides reflective packet interception of
  * both clientbound and serverbound packets, as well as
  * login and ping packets. Support is also provided for
- * sending packets.</p>
+ * sending packets, as well as constructing them using
+ * {@link PacketFactory}.</p>
  *
  * <p>Caveats:
  * - This is not intended to be for production use. This is
@@ -59,40 +96,6 @@ public class TinierProtocol {
     private static final String NMS_PACKAGE = "net.minecraft.server." + OBC_PACKAGE_VER + ".";
     private static final String NETTY_PACKAGE = "io.netty.channel.";
 
-    // obc.CraftServer
-    private static final Class<?> CS_CLS = lookupClass(OBC_PACKAGE + "CraftServer");
-    // DedicatedPlayerList CraftServer#getHandle()
-    private static final Method CS_GET_HANDLE_ME = lookupMethod(CS_CLS, "getHandle");
-    // nms.DedicatedPlayerList
-    private static final Class<?> DPL_CLS = lookupClass(NMS_PACKAGE + "DedicatedPlayerList");
-    // DedicatedServer DedicatedPlayerList#getServer()
-    private static final Method DPL_GET_SERVER_ME = lookupMethod(DPL_CLS, "getServer");
-    // nms.MinecraftServer
-    private static final Class<?> MS_CLS = lookupClass(NMS_PACKAGE + "MinecraftServer");
-    // ServerConnection MinecraftServer#getServerConnection()
-    private static final Method DS_GET_SERVER_CONNECTION = lookupMethod(MS_CLS, "getServerConnection");
-    // nms.ServerConnection
-    private static final Class<?> SC_CLS = lookupClass(NMS_PACKAGE + "ServerConnection");
-    // List<ChannelFuture> ServerConnection#listeningChannels
-    private static final Field SERVER_CHANNELS = lookupField(SC_CLS, "listeningChannels");
-    // List<NetworkManager> ServerConnection#connectedChannels
-    private static final Field CLIENT_CONNECTIONS = lookupField(SC_CLS, "connectedChannels");
-
-    private static final Object SERVER_CONNECTION_INST;
-
-    // Initialize the ServerConnection instance held by the server
-    static {
-        Server csInstance = Bukkit.getServer();
-        Object dplInstance = invokeMethod(CS_GET_HANDLE_ME, csInstance);
-        Object dsInstance = invokeMethod(DPL_GET_SERVER_ME, dplInstance);
-        SERVER_CONNECTION_INST = invokeMethod(DS_GET_SERVER_CONNECTION, dsInstance);
-    }
-
-    // nms.NetworkManager
-    private static final Class<?> NM_CLS = lookupClass(NMS_PACKAGE + "NetworkManager");
-    // Channel NetworkManager#channel
-    private static final Field NM_CHANNEL = lookupField(NM_CLS, "channel");
-
     // netty.ChannelHandler
     private static final Class<?> CH_HANDLER_CLS = lookupClass(NETTY_PACKAGE + "ChannelHandler");
     // void ChannelHandler#handlerAdded(ChannelHandlerContext)
@@ -102,11 +105,15 @@ public class TinierProtocol {
     private static final Class<?> CIH_CLS = lookupClass(NETTY_PACKAGE + "ChannelInboundHandler");
     // void ChannelInboundHandler#channelRead(ChannelHandlerContext, Object)
     private static final String CIH_CH_READ_ME_NAME = "channelRead";
+    // void ChannelInboundHandler#channelReadComplete(ChannelHandlerContext)
+    private static final String CIH_CH_READ_COMPLETE_ME_NAME = "channelReadComplete";
 
     // netty.ChannelOutboundHandler
     private static final Class<?> COH_CLS = lookupClass(NETTY_PACKAGE + "ChannelOutboundHandler");
     // void ChannelOutboundHandler#write(ChannelHandlerContext, Object, ChannelPromise)
     private static final String COH_WRITE_ME_NAME = "write";
+    // void ChannelOutboundHandler#flush(ChannelHandlerContext)
+    private static final String COH_FLUSH_ME_NAME = "flush";
 
     // netty.Channel
     private static final Class<?> CH_CLS = lookupClass(NETTY_PACKAGE + "Channel");
@@ -114,6 +121,8 @@ public class TinierProtocol {
     private static final Method CH_REMOTE_ADDR_ME = lookupMethod(CH_CLS, "remoteAddress");
     // ChannelPipeline Channel#pipeline()
     private static final Method CH_PIPELINE_ME = lookupMethod(CH_CLS, "pipeline");
+    // EventLoop Channel#eventLoop()
+    private static final Method CH_EVENT_LOOP_ME = lookupMethod(CH_CLS, "eventLoop");
 
     // netty.ChannelPipeline
     private static final Class<?> CP_CLS = lookupClass(NETTY_PACKAGE + "ChannelPipeline");
@@ -126,14 +135,26 @@ public class TinierProtocol {
     // ChannelPipeline ChannelPipeline#addBefore(String, String, ChannelHandler)
     private static final Method CP_ADD_BEFORE_ME = lookupMethod(CP_CLS, "addBefore",
             String.class, String.class, CH_HANDLER_CLS);
+    // ChannelPipeline ChannelPipeline#addAfter(String, String, ChannelHandler)
+    private static final Method CP_ADD_AFTER_ME = lookupMethod(CP_CLS, "addAfter",
+            String.class, String.class, CH_HANDLER_CLS);
     // ChannelPipeline#remove(ChannelHandler)
     private static final Method CP_REMOVE_ME = lookupMethod(CP_CLS, "remove",
             CH_HANDLER_CLS);
+    // ChannelPipeline#remove(String)
+    private static final Method CP_REMOVE_NAME_ME = lookupMethod(CP_CLS, "remove",
+            String.class);
 
     // netty.ChannelFuture
     private static final Class<?> CF_CLS = lookupClass(NETTY_PACKAGE + "ChannelFuture");
     // Channel ChannelFuture#channel()
     private static final Method CF_CHANNEL_ME = lookupMethod(CF_CLS, "channel");
+    // netty.GenericFutureListener
+    private static final Class<?> GFL_CLS = lookupClass("io.netty.util.concurrent.GenericFutureListener");
+    // ChannelFuture ChannelFuture#addListener(GenericFutureListener)
+    private static final Method CF_ADD_LISTENER_ME = lookupMethod(CF_CLS, "addListener", GFL_CLS);
+    // boolean ChannelFuture#isVoid()
+    private static final Method CF_IS_VOID_ME = lookupMethod(CF_CLS, "isVoid");
 
     // netty.ChannelHandlerContext
     private static final Class<?> CHC_CLS = lookupClass(NETTY_PACKAGE + "ChannelHandlerContext");
@@ -157,15 +178,43 @@ public class TinierProtocol {
     // ChannelFuture ChannelOutboundInvoker#write(Object, ChannelPromise)
     private static final Method COI_WRITE_ME = lookupMethod(COI_CLS, "write",
             Object.class, CH_PROMISE_CLS);
+    // ChannelFuture ChannelOutboundInvoker#writeAndFlush(Object)
+    private static final Method COI_WRITE_AND_FLUSH_ME = lookupMethod(COI_CLS, "writeAndFlush",
+            Object.class);
+    // ChannelOutboundInvoker ChannelOutboundInvoker#flush()
+    private static final Method COI_FLUSH_ME = lookupMethod(COI_CLS, "flush");
+
+    // Handles for the methods called for each packet, which unlike
+    // invokeMethod do not allocate an array for the arguments
+    private static final MethodHandle CHC_CHANNEL_MH = lookupGenericHandle(CHC_CHANNEL_ME, Object.class);
+    private static final MethodHandle CHC_FIRE_CH_READ_MH = lookupGenericHandle(CHC_FIRE_CH_READ_ME, void.class);
+    private static final MethodHandle COI_WRITE_MH = lookupGenericHandle(COI_WRITE_ME, void.class);
+    private static final MethodHandle COI_WRITE_AND_FLUSH_MH = lookupGenericHandle(COI_WRITE_AND_FLUSH_ME, void.class);
 
-    // Caches for reflective methods forwarded from ChannelInboundHandler and
-    // ChannelOutboundHandler
-    private static final Map<String, Method> CIH_FORWARD_CACHE = new ConcurrentHashMap<>();
-    private static final Map<String, Method> COH_FORWARD_CACHE = new ConcurrentHashMap<>();
+    // ChannelHandlerContext ChannelPipeline#context(String)
+    private static final Method CP_CONTEXT_ME = lookupMethod(CP_CLS, "context", String.class);
+    // ChannelHandler ChannelPipeline#get(String)
+    private static final Method CP_GET_ME = lookupMethod(CP_CLS, "get", String.class);
+
+    // Handles for the methods called for each connection a packet
+    // is broadcast to
+    private static final MethodHandle CH_PIPELINE_MH = lookupGenericHandle(CH_PIPELINE_ME, Object.class);
+    private static final MethodHandle CH_EVENT_LOOP_MH = lookupGenericHandle(CH_EVENT_LOOP_ME, Object.class);
+    private static final MethodHandle CP_CONTEXT_MH = lookupGenericHandle(CP_CONTEXT_ME, Object.class);
+    private static final MethodHandle CP_GET_MH = lookupGenericHandle(CP_GET_ME, Object.class);
 
     // The ID of the ChannelHandler before which to insert the TinierProtocol
     // interceptor handlers
     private static final String MC_PACKET_HANDLER_ID = "packet_handler";
+    // The IDs of the ChannelHandlers that encode and compress packets
+    private static final String MC_ENCODER_ID = "encoder";
+    private static final String MC_COMPRESS_ID = "compress";
+    // The ID of the ChannelHandler that decompresses received frames
+    private static final String MC_DECOMPRESS_ID = "decompress";
+    // The IDs of the ChannelHandlers that split and prepend the length to
+    // packet frames
+    private static final String MC_SPLITTER_ID = "splitter";
+    private static final String MC_PREPENDER_ID = "prepender";
 
     // A uniquifier number used for multiple instances in a single plugin
     private static final AtomicInteger UNIQUE_COUNTER = new AtomicInteger();
@@ -184,6 +233,9 @@ public class TinierProtocol {
     // Packet interceptor handler IDs
     private final String packetInProxyId;
     private final String packetOutProxyId;
+    private final String wireInProxyId;
+    private final String wireOutProxyId;
+    private final String compressionStageId;
 
     // Instances of proxies and listeners that need to be cleaned up
     // when this thing is closed
@@ -199,6 +251,29 @@ public class TinierProtocol {
     // The handlers used to perform interception logic
     private volatile BiFunction<ClientConnection, Object, Object> inHandler;
     private volatile BiFunction<ClientConnection, Object, Object> outHandler;
+    // Handlers indexed by ProtocolPhase ordinal, replaced rather than
+    // modified, or null if no phase handler is set
+    private volatile BiFunction<ClientConnection, Object, Object>[] inPhaseHandlers;
+    private volatile BiFunction<ClientConnection, Object, Object>[] outPhaseHandlers;
+    private volatile BiConsumer<ClientConnection, PacketRewrite> outRewriteHandler;
+    private volatile Consumer<ClientConnection> readBatchHandler;
+    private volatile Consumer<ClientConnection> flushHandler;
+    // The cache used to answer status requests, if any
+    private volatile StatusCache statusCache;
+    // The admission control for new connections, if any
+    private volatile ConnectionThrottle connectionThrottle;
+    // The watchdog timing the packet handlers, if any
+    private volatile HandlerWatchdog watchdog;
+    // The consumers to which inbound packets are delivered
+    // on the main thread, and the task which delivers them
+    private volatile MainThreadConsumer[] mainThreadConsumers = new MainThreadConsumer[0];
+    private BukkitTask mainThreadDrainTask;
+    // The taps to which packets are published
+    private volatile PacketTap[] taps = new PacketTap[0];
+    // Whether or not new connections count the bytes they send and receive
+    private volatile boolean isBandwidthAccounting;
+    // The pool compressing large outbound frames, if any
+    private volatile CompressionOffload compressionOffload;
 
     /**
      * Creates a new instance of {@code TinierProtocol} for
@@ -212,6 +287,9 @@ public class TinierProtocol {
         int uniquifier = UNIQUE_COUNTER.incrementAndGet();
         this.packetInProxyId = plugin.getName() + "_tinierprotocol_in_" + uniquifier;
         this.packetOutProxyId = plugin.getName() + "_tinierprotocol_out_" + uniquifier;
+        this.wireInProxyId = plugin.getName() + "_tinierprotocol_wire_in_" + uniquifier;
+        this.wireOutProxyId = plugin.getName() + "_tinierprotocol_wire_out_" + uniquifier;
+        this.compressionStageId = plugin.getName() + "_tinierprotocol_compression_" + uniquifier;
 
         this.supportListener = this.createSupportListener();
         this.packetInProxy = this.createPacketInProxy();
@@ -274,6 +352,481 @@ public class TinierProtocol {
         return this.outHandler;
     }
 
+    /**
+     * Sets the inbound packet handler which is only called
+     * for packets received while the connection is in the
+     * given protocol phase.
+     *
+     * <p>Phase handlers are called after the handler set
+     * using {@link #setInHandler(BiFunction)}, and have the
+     * same inputs and return value. If no phase handler is
+     * set, the phase of the connection is not looked up at
+     * all.</p>
+     *
+     * @param phase the phase for which to handle packets
+     * @param inHandler the function which handles packets,
+     * or {@code null} to remove it
+     */
+    public void setInHandler(ProtocolPhase phase, BiFunction<ClientConnection, Object, Object> inHandler) {
+        synchronized (this) {
+            this.inPhaseHandlers = withPhaseHandler(this.inPhaseHandlers, phase, inHandler);
+        }
+    }
+
+    /**
+     * Obtains the inbound packet handler for the given
+     * protocol phase. This may return null.
+     *
+     * @param phase the phase whose handler to obtain
+     * @return the handler for the phase
+     */
+    public BiFunction<ClientConnection, Object, Object> getInHandler(ProtocolPhase phase) {
+        BiFunction<ClientConnection, Object, Object>[] handlers = this.inPhaseHandlers;
+        return handlers == null ? null : handlers[phase.ordinal()];
+    }
+
+    /**
+     * Sets the outbound packet handler which is only called
+     * for packets sent while the connection is in the given
+     * protocol phase.
+     *
+     * <p>Phase handlers are called after the handler set
+     * using {@link #setOutHandler(BiFunction)}, and have the
+     * same inputs and return value. If no phase handler is
+     * set, the phase of the connection is not looked up at
+     * all.</p>
+     *
+     * @param phase the phase for which to handle packets
+     * @param outHandler the function which handles packets,
+     * or {@code null} to remove it
+     */
+    public void setOutHandler(ProtocolPhase phase, BiFunction<ClientConnection, Object, Object> outHandler) {
+        synchronized (this) {
+            this.outPhaseHandlers = withPhaseHandler(this.outPhaseHandlers, phase, outHandler);
+        }
+    }
+
+    /**
+     * Obtains the outbound packet handler for the given
+     * protocol phase. This may return null.
+     *
+     * @param phase the phase whose handler to obtain
+     * @return the handler for the phase
+     */
+    public BiFunction<ClientConnection, Object, Object> getOutHandler(ProtocolPhase phase) {
+        BiFunction<ClientConnection, Object, Object>[] handlers = this.outPhaseHandlers;
+        return handlers == null ? null : handlers[phase.ordinal()];
+    }
+
+    /**
+     * Copies the given phase handlers with the handler for
+     * the given phase replaced.
+     *
+     * @param handlers the current handlers, or {@code null}
+     * @param phase the phase whose handler to replace
+     * @param handler the new handler, or {@code null}
+     * @return the new handlers, or {@code null} if there
+     * are no handlers left
+     */
+    @SuppressWarnings("unchecked")
+    private static BiFunction<ClientConnection, Object, Object>[] withPhaseHandler(
+            BiFunction<ClientConnection, Object, Object>[] handlers, ProtocolPhase phase,
+            BiFunction<ClientConnection, Object, Object> handler) {
+        BiFunction<ClientConnection, Object, Object>[] copy;
+        if (handlers == null) {
+            int length = ProtocolPhase.values().length;
+            copy = (BiFunction<ClientConnection, Object, Object>[]) new BiFunction<?, ?, ?>[length];
+        } else {
+            copy = handlers.clone();
+        }
+        copy[phase.ordinal()] = handler;
+
+        for (BiFunction<ClientConnection, Object, Object> h : copy) {
+            if (h != null) {
+                return copy;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Sets the outbound packets rewrite handler, which may
+     * modify packets for a single connection.
+     *
+     * <p>The server often sends the same packet instance to
+     * many connections, so modifying it in the outbound
+     * packet handler modifies it for every connection. The
+     * rewrite handler is instead given a
+     * {@link PacketRewrite} which copies the packet the first
+     * time that one of its fields is set, so only the
+     * connection being handled sees the change, and packets
+     * that are only read are never copied.</p>
+     *
+     * <p>The rewrite handler is called after the outbound
+     * packet handler.</p>
+     *
+     * @param outRewriteHandler the function which rewrites
+     * packets, or {@code null}
+     */
+    public void setOutRewriteHandler(BiConsumer<ClientConnection, PacketRewrite> outRewriteHandler) {
+        this.outRewriteHandler = outRewriteHandler;
+    }
+
+    /**
+     * Obtains the outbound packet rewrite handler that is
+     * currently set. This may return null.
+     *
+     * @return the rewrite handler
+     */
+    public BiConsumer<ClientConnection, PacketRewrite> getOutRewriteHandler() {
+        return this.outRewriteHandler;
+    }
+
+    /**
+     * Sets the handler called once the packets read from a
+     * connection's socket in a single batch have all been
+     * passed to the inbound packet handler.
+     *
+     * <p>This allows work to be accumulated for each
+     * packet and then performed once per batch rather than
+     * once per packet.</p>
+     *
+     * @param readBatchHandler the function which handles
+     * the end of a read batch, or {@code null}
+     */
+    public void setReadBatchHandler(Consumer<ClientConnection> readBatchHandler) {
+        this.readBatchHandler = readBatchHandler;
+    }
+
+    /**
+     * Obtains the read batch handler that is currently set.
+     * This may return null.
+     *
+     * @return the read batch handler
+     */
+    public Consumer<ClientConnection> getReadBatchHandler() {
+        return this.readBatchHandler;
+    }
+
+    /**
+     * Sets the handler called when the packets written to a
+     * connection are about to be flushed to its socket.
+     *
+     * <p>The handler is called before the flush is passed
+     * on, so packets written by the handler are included in
+     * the flush. Note that sending packets using
+     * {@link ClientConnection#sendPacket(Object)} flushes
+     * again, which calls this handler again.</p>
+     *
+     * @param flushHandler the function which handles
+     * flushes, or {@code null}
+     */
+    public void setFlushHandler(Consumer<ClientConnection> flushHandler) {
+        this.flushHandler = flushHandler;
+    }
+
+    /**
+     * Obtains the flush handler that is currently set. This
+     * may return null.
+     *
+     * @return the flush handler
+     */
+    public Consumer<ClientConnection> getFlushHandler() {
+        return this.flushHandler;
+    }
+
+    /**
+     * Sets the cache used to answer server list status and
+     * ping requests directly from the interceptor without
+     * passing them to the server.
+     *
+     * <p>The cache is refreshed while this instance has
+     * begun intercepting packets. Any previously set cache
+     * is stopped. Status requests answered from the cache
+     * are not passed to the inbound packet handler.</p>
+     *
+     * @param statusCache the status cache, or {@code null}
+     * to let the server handle status requests
+     */
+    public void setStatusCache(StatusCache statusCache) {
+        synchronized (this) {
+            StatusCache previous = this.statusCache;
+            if (previous != null) {
+                previous.stop();
+            }
+
+            this.statusCache = statusCache;
+            if (statusCache != null && this.hasBegun) {
+                statusCache.start(this.plugin);
+            }
+        }
+    }
+
+    /**
+     * Obtains the status cache that is currently set. This
+     * may return null.
+     *
+     * @return the status cache
+     */
+    public StatusCache getStatusCache() {
+        return this.statusCache;
+    }
+
+    /**
+     * Sets the admission control used to reject new
+     * connections to the server before they are initialized.
+     *
+     * <p>Rejected connections are closed before any
+     * Minecraft handlers are added to them and before
+     * they are ever seen by the packet handlers.</p>
+     *
+     * @param connectionThrottle the throttle, or
+     * {@code null} to accept every connection
+     */
+    public void setConnectionThrottle(ConnectionThrottle connectionThrottle) {
+        this.connectionThrottle = connectionThrottle;
+    }
+
+    /**
+     * Obtains the connection throttle that is currently
+     * set. This may return null.
+     *
+     * @return the connection throttle
+     */
+    public ConnectionThrottle getConnectionThrottle() {
+        return this.connectionThrottle;
+    }
+
+    /**
+     * Sets the watchdog used to time each call to the
+     * inbound and outbound packet handlers.
+     *
+     * <p>The watchdog's monitor thread, if enabled, runs
+     * while this instance has begun intercepting packets.
+     * Any previously set watchdog is stopped.</p>
+     *
+     * @param watchdog the watchdog, or {@code null} to
+     * stop timing the handlers
+     */
+    public void setWatchdog(HandlerWatchdog watchdog) {
+        synchronized (this) {
+            HandlerWatchdog previous = this.watchdog;
+            if (previous != null) {
+                previous.stop();
+            }
+
+            this.watchdog = watchdog;
+            if (watchdog != null && this.hasBegun) {
+                watchdog.start();
+            }
+        }
+    }
+
+    /**
+     * Obtains the handler watchdog that is currently set.
+     * This may return null.
+     *
+     * @return the handler watchdog
+     */
+    public HandlerWatchdog getWatchdog() {
+        return this.watchdog;
+    }
+
+    /**
+     * Registers a consumer to which the selected inbound
+     * packets are delivered on the main thread.
+     *
+     * <p>Packets are buffered as they are received and
+     * delivered once per server tick, grouped by the
+     * connection which sent them, rather than scheduling a
+     * task for each packet. Packets are buffered after the
+     * inbound packet handler is called, so packets that it
+     * drops are not delivered.</p>
+     *
+     * @param consumer the consumer to register
+     */
+    public void addMainThreadConsumer(MainThreadConsumer consumer) {
+        synchronized (this) {
+            MainThreadConsumer[] consumers = Arrays.copyOf(this.mainThreadConsumers,
+                    this.mainThreadConsumers.length + 1);
+            consumers[consumers.length - 1] = consumer;
+            this.mainThreadConsumers = consumers;
+
+            if (this.hasBegun) {
+                this.startMainThreadDrain();
+            }
+        }
+    }
+
+    /**
+     * Unregisters a consumer that was previously
+     * registered using
+     * {@link #addMainThreadConsumer(MainThreadConsumer)}.
+     *
+     * <p>Packets buffered but not yet delivered to the
+     * consumer are discarded.</p>
+     *
+     * @param consumer the consumer to unregister
+     */
+    public void removeMainThreadConsumer(MainThreadConsumer consumer) {
+        synchronized (this) {
+            List<MainThreadConsumer> consumers = new ArrayList<>(Arrays.asList(this.mainThreadConsumers));
+            if (consumers.remove(consumer)) {
+                this.mainThreadConsumers = consumers.toArray(new MainThreadConsumer[0]);
+                consumer.clear();
+            }
+
+            if (consumers.isEmpty() && this.mainThreadDrainTask != null) {
+                this.mainThreadDrainTask.cancel();
+                this.mainThreadDrainTask = null;
+            }
+        }
+    }
+
+    /**
+     * Subscribes the given tap to the packets intercepted
+     * by this instance.
+     *
+     * <p>Packets are published to the tap after the packet
+     * handlers are called, so packets that they drop are
+     * not published. The tap's consumer thread runs while
+     * this instance has begun intercepting packets.</p>
+     *
+     * @param tap the tap to subscribe
+     */
+    public void addTap(PacketTap tap) {
+        synchronized (this) {
+            PacketTap[] taps = Arrays.copyOf(this.taps, this.taps.length + 1);
+            taps[taps.length - 1] = tap;
+            this.taps = taps;
+
+            if (this.hasBegun) {
+                tap.start(this.plugin);
+            }
+        }
+    }
+
+    /**
+     * Unsubscribes a tap that was previously subscribed
+     * using {@link #addTap(PacketTap)}, stops its
+     * consumer thread and discards the events it has not
+     * consumed.
+     *
+     * @param tap the tap to unsubscribe
+     */
+    public void removeTap(PacketTap tap) {
+        synchronized (this) {
+            List<PacketTap> taps = new ArrayList<>(Arrays.asList(this.taps));
+            if (taps.remove(tap)) {
+                this.taps = taps.toArray(new PacketTap[0]);
+                tap.stop();
+                tap.clear();
+            }
+        }
+    }
+
+    /**
+     * Sets whether connections initialized from now on
+     * count the bytes that they send and receive.
+     *
+     * <p>Bandwidth accounting adds a handler in each
+     * direction at the frame level of the pipeline, so it is
+     * disabled by default. Connections that were already
+     * initialized are not affected until this instance is
+     * closed and begun again.</p>
+     *
+     * @param isBandwidthAccounting {@code true} to count
+     * bytes
+     */
+    public void setBandwidthAccounting(boolean isBandwidthAccounting) {
+        this.isBandwidthAccounting = isBandwidthAccounting;
+    }
+
+    /**
+     * Determines whether new connections count the bytes
+     * that they send and receive.
+     *
+     * @return {@code true} if bandwidth accounting is
+     * enabled
+     */
+    public boolean isBandwidthAccounting() {
+        return this.isBandwidthAccounting;
+    }
+
+    /**
+     * Sets the pool used to compress the large frames sent
+     * to connections, rather than compressing them on the
+     * connection's event loop.
+     *
+     * <p>The pool adds a handler next to the server's
+     * compressor of each connection once compression is
+     * enabled, and its worker threads run while this
+     * instance has begun intercepting packets. Connections
+     * that were already initialized are not affected until
+     * this instance is closed and begun again. Any
+     * previously set pool is stopped.</p>
+     *
+     * @param compressionOffload the pool, or {@code null}
+     * to compress every frame inline
+     */
+    public void setCompressionOffload(CompressionOffload compressionOffload) {
+        synchronized (this) {
+            CompressionOffload previous = this.compressionOffload;
+            if (previous != null) {
+                previous.stop();
+            }
+
+            this.compressionOffload = compressionOffload;
+            if (compressionOffload != null && this.hasBegun) {
+                compressionOffload.start();
+            }
+        }
+    }
+
+    /**
+     * Obtains the pool used to compress large frames that
+     * is currently set. This may return null.
+     *
+     * @return the compression offload
+     */
+    public CompressionOffload getCompressionOffload() {
+        return this.compressionOffload;
+    }
+
+    /**
+     * Obtains the bandwidth of the connections that have
+     * used the most bandwidth in the last second.
+     *
+     * <p>This reads the counters of each connection without
+     * locking, so the results may be slightly out of date.
+     * </p>
+     *
+     * @param n the maximum number of connections to obtain
+     * @param inbound {@code true} to rank by inbound
+     * (serverbound) bandwidth, {@code false} to rank by
+     * outbound (clientbound) bandwidth
+     * @return the bandwidth of the top connections, highest
+     * first
+     */
+    public List<BandwidthSnapshot> getTopBandwidth(int n, boolean inbound) {
+        Comparator<BandwidthSnapshot> byRate = Comparator.comparingLong(snapshot ->
+                inbound ? snapshot.getInboundRate() : snapshot.getOutboundRate());
+
+        // Min-heap of the top n seen so far
+        PriorityQueue<BandwidthSnapshot> top = new PriorityQueue<>(Math.max(1, n), byRate);
+        for (ClientConnection cc : this.connectionMap.values()) {
+            top.offer(cc.getBandwidth());
+            if (top.size() > n) {
+                top.poll();
+            }
+        }
+
+        List<BandwidthSnapshot> result = new ArrayList<>(top);
+        result.sort(byRate.reversed());
+        return result;
+    }
+
     /**
      * Determins whether this class is actively
      * intercepting packets.
@@ -301,6 +854,30 @@ public class TinierProtocol {
             Bukkit.getPluginManager().registerEvents(this.supportListener, this.plugin);
             this.hijackCurrentPlayers();
             this.hijackServerConnection();
+
+            StatusCache statusCache = this.statusCache;
+            if (statusCache != null) {
+                statusCache.start(this.plugin);
+            }
+
+            HandlerWatchdog watchdog = this.watchdog;
+            if (watchdog != null) {
+                watchdog.start();
+            }
+
+            CompressionOffload compressionOffload = this.compressionOffload;
+            if (compressionOffload != null) {
+                compressionOffload.start();
+            }
+
+            if (this.mainThreadConsumers.length > 0) {
+                this.startMainThreadDrain();
+            }
+
+            for (PacketTap tap : this.taps) {
+                tap.start(this.plugin);
+            }
+
             this.hasBegun = true;
         }
     }
@@ -323,12 +900,37 @@ public class TinierProtocol {
 
             // Clean up
             HandlerList.unregisterAll(this.supportListener);
+            StatusCache statusCache = this.statusCache;
+            if (statusCache != null) {
+                statusCache.stop();
+            }
+
+            HandlerWatchdog watchdog = this.watchdog;
+            if (watchdog != null) {
+                watchdog.stop();
+            }
+
+            CompressionOffload compressionOffload = this.compressionOffload;
+            if (compressionOffload != null) {
+                compressionOffload.stop();
+            }
+
+            if (this.mainThreadDrainTask != null) {
+                this.mainThreadDrainTask.cancel();
+                this.mainThreadDrainTask = null;
+            }
+
+            for (PacketTap tap : this.taps) {
+                tap.stop();
+            }
+
             this.connectionMap.clear();
             this.playerMap.clear();
 
             // Remove the new connection intializer from
             // the server's connection
-            List<?> channelFutures = getFieldValue(SERVER_CHANNELS, SERVER_CONNECTION_INST);
+            List<?> channelFutures = getFieldValue(ConnectionHandles.SERVER_CHANNELS,
+                    ConnectionHandles.SERVER_CONNECTION_INST);
             synchronized (channelFutures) {
                 for (Object future : channelFutures) {
                     Object channelInst = invokeMethod(CF_CHANNEL_ME, future);
@@ -340,23 +942,59 @@ public class TinierProtocol {
 
             // Remove the interceptors from each individual
             // player's connection
-            List<?> connections = getFieldValue(CLIENT_CONNECTIONS, SERVER_CONNECTION_INST);
+            List<?> connections = getFieldValue(ConnectionHandles.CLIENT_CONNECTIONS,
+                    ConnectionHandles.SERVER_CONNECTION_INST);
             synchronized (connections) {
                 for (Object connection : connections) {
-                    Object channelInst = getFieldValue(NM_CHANNEL, connection);
+                    Object channelInst = getFieldValue(ConnectionHandles.NM_CHANNEL, connection);
                     Object pipelineInst = invokeMethod(CH_PIPELINE_ME, channelInst);
 
                     invokeMethod(CP_REMOVE_ME, pipelineInst,
                             CH_HANDLER_CLS.cast(this.packetInProxy));
                     invokeMethod(CP_REMOVE_ME, pipelineInst,
                             CH_HANDLER_CLS.cast(this.packetOutProxy));
+
+                    // Bandwidth counters and compression stages are
+                    // per-channel so they are removed by name
+                    if (invokeMethod(CP_CONTEXT_ME, pipelineInst, this.wireInProxyId) != null) {
+                        invokeMethod(CP_REMOVE_NAME_ME, pipelineInst, this.wireInProxyId);
+                    }
+                    if (invokeMethod(CP_CONTEXT_ME, pipelineInst, this.wireOutProxyId) != null) {
+                        invokeMethod(CP_REMOVE_NAME_ME, pipelineInst, this.wireOutProxyId);
+                    }
+                    if (invokeMethod(CP_CONTEXT_ME, pipelineInst, this.compressionStageId) != null) {
+                        invokeMethod(CP_REMOVE_NAME_ME, pipelineInst, this.compressionStageId);
+                    }
                 }
             }
 
+            // Drop the packets that were not delivered so that
+            // they do not hold on to the connections
+            for (MainThreadConsumer consumer : this.mainThreadConsumers) {
+                consumer.clear();
+            }
+
             hasBegun = false;
         }
     }
 
+    /**
+     * Starts, if not already, the task that delivers the
+     * buffered packets to the main thread consumers every
+     * tick.
+     */
+    private void startMainThreadDrain() {
+        if (this.mainThreadDrainTask != null) {
+            return;
+        }
+
+        this.mainThreadDrainTask = Bukkit.getScheduler().runTaskTimer(this.plugin, () -> {
+            for (MainThreadConsumer consumer : this.mainThreadConsumers) {
+                consumer.drain(this.plugin);
+            }
+        }, 1, 1);
+    }
+
     /**
      * Performs the injection on a single netty Channel.
      *
@@ -378,12 +1016,13 @@ public class TinierProtocol {
      * connections to the server.
      */
     private void hijackCurrentPlayers() {
-        List<?> connections = getFieldValue(CLIENT_CONNECTIONS, SERVER_CONNECTION_INST);
+        List<?> connections = getFieldValue(ConnectionHandles.CLIENT_CONNECTIONS,
+                ConnectionHandles.SERVER_CONNECTION_INST);
         synchronized (connections) {
             // Go through each player and add the
             // interceptor to each connection
             for (Object connection : connections) {
-                Object channelInst = getFieldValue(NM_CHANNEL, connection);
+                Object channelInst = getFieldValue(ConnectionHandles.NM_CHANNEL, connection);
                 this.hijackChannel(channelInst);
             }
         }
@@ -395,7 +1034,8 @@ public class TinierProtocol {
      * new connections made to the server by clients.
      */
     private void hijackServerConnection() {
-        List<?> channelFutures = getFieldValue(SERVER_CHANNELS, SERVER_CONNECTION_INST);
+        List<?> channelFutures = getFieldValue(ConnectionHandles.SERVER_CHANNELS,
+                ConnectionHandles.SERVER_CONNECTION_INST);
         synchronized (channelFutures) {
             for (Object future : channelFutures) {
                 Object channelInst = invokeMethod(CF_CHANNEL_ME, future);
@@ -434,9 +1074,11 @@ public class TinierProtocol {
                 if (ch != null) {
                     playerMap.put(player.getUniqueId(), ch);
 
-                    ClientConnection cc = new ClientConnection(ch);
+                    // Reuse the connection wrapper if the
+                    // interceptors have already seen the
+                    // channel in order to keep its state
+                    ClientConnection cc = getClientConnection(ch);
                     cc.setPlayer(player);
-                    connectionMap.put(ch, cc);
                 }
             }
 
@@ -480,21 +1122,18 @@ public class TinierProtocol {
      * in the channel context in order to pass the
      * arguments down the pipeline.
      *
-     * @param methodName the name of the method that is
-     * being forwarded
-     * @param mappedName the name of the method that should
-     * be called
-     * @param mappedCls the class to which the mapped
-     * method belongs
+     * @param method the proxied method that is being
+     * forwarded
      * @param args the args to forward
-     * @param cache the cache used to store the forwarded
-     * method mapping
+     * @param forwards the handles forwarding each method
+     * of the proxied interface
      * @return the return type of the method that the to
      * which the call was forwarded
+     * @throws Throwable if the forwarded method throws
      */
-    private Object handleAdaptedProxyMethods(String methodName, String mappedName, Class<?> mappedCls,
-                                             Object[] args, Map<String, Method> cache) {
-        switch (methodName) {
+    private Object handleAdaptedProxyMethods(Method method, Object[] args,
+                                             Map<Method, MethodHandle> forwards) throws Throwable {
+        switch (method.getName()) {
             // These shouldn't do anything
             case "ensureNotSharable":
             case "handlerAdded":
@@ -513,45 +1152,115 @@ public class TinierProtocol {
             // inbound/outbound specific methods that
             // need to be invoked
             default:
-                Object[] forwardedArgs = new Object[args.length - 1];
-                System.arraycopy(args, 1, forwardedArgs, 0, args.length - 1);
-
-                invokeMethod(cache.computeIfAbsent(mappedName, k -> {
-                    for (Method me : mappedCls.getDeclaredMethods()) {
-                        if (me.getName().equals(k)) {
-                            return me;
-                        }
-                    }
+                MethodHandle forward = forwards.get(method);
+                if (forward == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
 
-                    throw new UnsupportedOperationException(methodName);
-                }), args[0], forwardedArgs);
+                forward.invokeExact(args);
                 break;
         }
         return null;
     }
 
     /**
-     * Creates a new connection initializer proxy which
-     * is a ChannelInboundHandler that adds the initializer
-     * for any connections initiated to the server.
+     * Builds the handles forwarding each method of the
+     * given handler interface that has a counterpart in
+     * the given class.
      *
-     * @return the ChannelInboundHandler proxy handling new
-     * client-initiated connections
+     * @param handlerCls the proxied handler interface
+     * @param isFired {@code true} if each method is mapped
+     * to the {@code fire} method of the same name, or
+     * {@code false} if it is mapped to the same name
+     * @param mappedCls the class declaring the mapped
+     * methods
+     * @return an unmodifiable map of each proxied method
+     * to its forwarding handle
      */
-    private Object createConnectionInitProxy() {
-        return Proxy.newProxyInstance(CIH_CLS.getClassLoader(),
-                new Class<?>[]{CIH_CLS},
-                (o, method, args) -> {
-                    String methodName = method.getName();
+    private static Map<Method, MethodHandle> buildForwardingTable(Class<?> handlerCls, boolean isFired,
+                                                                  Class<?> mappedCls) {
+        Map<Method, MethodHandle> forwards = new HashMap<>();
+        for (Method method : handlerCls.getMethods()) {
+            MethodHandle forward = lookupForwardHandle(method, isFired, mappedCls);
+            if (forward != null) {
+                forwards.put(method, forward);
+            }
+        }
 
-                    // channelRead() called by a new channel
-                    if (methodName.equals(CIH_CH_READ_ME_NAME)) {
-                        Object ctx = args[0];
-                        Object channel = args[1];
+        return Collections.unmodifiableMap(forwards);
+    }
 
-                        // Cache for later lookup to find the player object
-                        InetSocketAddress addr = invokeMethod(CH_REMOTE_ADDR_ME, channel);
-                        this.addressMap.put(addr.getAddress(), channel);
+    /**
+     * Finds the method to which the given proxied method
+     * is forwarded and adapts it to take the arguments
+     * passed to the proxy.
+     *
+     * <p>The context is the first argument of the proxied
+     * method and the receiver of the mapped method, so the
+     * proxy's argument array is spread into the handle as
+     * is rather than copied without the context.</p>
+     *
+     * @param method the proxied method
+     * @param isFired whether the method is mapped to its
+     * {@code fire} counterpart
+     * @param mappedCls the class declaring the mapped
+     * method
+     * @return a handle of type {@code (Object[])void}, or
+     * {@code null} if the method has no counterpart
+     */
+    private static MethodHandle lookupForwardHandle(Method method, boolean isFired, Class<?> mappedCls) {
+        String methodName = method.getName();
+        String mappedName = isFired ?
+                "fire" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1) : methodName;
+        Class<?>[] params = method.getParameterTypes();
+        if (params.length == 0) {
+            return null;
+        }
+
+        try {
+            // Match the parameters as well as the name since
+            // some outbound methods are overloaded
+            Method mapped = mappedCls.getMethod(mappedName, Arrays.copyOfRange(params, 1, params.length));
+            return MethodHandles.publicLookup().unreflect(mapped)
+                    .asType(MethodType.genericMethodType(params.length).changeReturnType(void.class))
+                    .asSpreader(Object[].class, params.length);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a new connection initializer proxy which
+     * is a ChannelInboundHandler that adds the initializer
+     * for any connections initiated to the server.
+     *
+     * @return the ChannelInboundHandler proxy handling new
+     * client-initiated connections
+     */
+    private Object createConnectionInitProxy() {
+        return Proxy.newProxyInstance(CIH_CLS.getClassLoader(),
+                new Class<?>[]{CIH_CLS},
+                (o, method, args) -> {
+                    String methodName = method.getName();
+
+                    // channelRead() called by a new channel
+                    if (methodName.equals(CIH_CH_READ_ME_NAME)) {
+                        Object ctx = args[0];
+                        Object channel = args[1];
+
+                        // Close the channel before the server
+                        // initializes it if it isn't admitted
+                        InetSocketAddress addr = invokeMethod(CH_REMOTE_ADDR_ME, channel);
+                        ConnectionThrottle throttle = this.connectionThrottle;
+                        if (throttle != null && !throttle.tryAdmit(addr.getAddress())) {
+                            ConnectionThrottle.reject(channel);
+                            return null;
+                        }
+
+                        // Cache for later lookup to find the player object
+                        this.addressMap.put(addr.getAddress(), channel);
 
                         // Inject the new channel
                         this.hijackChannel(channel);
@@ -559,9 +1268,7 @@ public class TinierProtocol {
                         // Pass to the next ChannelHandler
                         invokeMethod(CHC_FIRE_CH_READ_ME, ctx, channel);
                     } else {
-                        String mappedName = "fire" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
-                        return this.handleAdaptedProxyMethods(methodName, mappedName, CHC_CLS,
-                                args, CIH_FORWARD_CACHE);
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.INBOUND);
                     }
 
                     return null;
@@ -594,13 +1301,33 @@ public class TinierProtocol {
                                     MC_PACKET_HANDLER_ID, this.packetInProxyId, this.packetInProxy);
                             invokeMethod(CP_ADD_BEFORE_ME, pipelineInst,
                                     MC_PACKET_HANDLER_ID, this.packetOutProxyId, this.packetOutProxy);
+
+                            // Add the byte counters next to the frame
+                            // handlers, where compress/decompress are
+                            // later inserted on their other side
+                            if (this.isBandwidthAccounting) {
+                                Object channel = invokeMethod(CHC_CHANNEL_ME, ctx);
+                                ClientConnection cc = this.getClientConnection(channel);
+                                cc.isInboundCompressed =
+                                        invokeMethod(CP_CONTEXT_ME, pipelineInst, MC_DECOMPRESS_ID) != null;
+                                cc.isOutboundCompressed =
+                                        invokeMethod(CP_CONTEXT_ME, pipelineInst, MC_COMPRESS_ID) != null;
+
+                                invokeMethod(CP_ADD_AFTER_ME, pipelineInst,
+                                        MC_SPLITTER_ID, this.wireInProxyId, this.createWireInProxy(cc));
+                                invokeMethod(CP_ADD_AFTER_ME, pipelineInst,
+                                        MC_PREPENDER_ID, this.wireOutProxyId, this.createWireOutProxy(cc));
+                            }
+
+                            // Connections that already compress their
+                            // frames get the compression stage now
+                            this.addCompressionStage(pipelineInst);
                         });
 
                         // Remove this initializer proxy from the pipeline
                         invokeMethod(CP_REMOVE_ME, pipelineInst, o);
                     } else {
-                        return this.handleAdaptedProxyMethods(methodName, methodName, CHC_CLS,
-                                args, CIH_FORWARD_CACHE);
+                        return this.handleAdaptedProxyMethods(method, args, Collections.emptyMap());
                     }
 
                     return null;
@@ -625,23 +1352,93 @@ public class TinierProtocol {
                         Object ctx = args[0];
                         Object packet = args[1];
 
+                        // Answer status requests without passing
+                        // them down the pipeline
+                        StatusCache statusCache = this.statusCache;
+                        if (statusCache != null && statusCache.tryRespond(ctx, packet)) {
+                            return null;
+                        }
+
+                        ClientConnection cc = null;
                         BiFunction<ClientConnection, Object, Object> handler = this.inHandler;
                         if (handler != null) {
-                            Object channel = invokeMethod(CHC_CHANNEL_ME, ctx);
-                            ClientConnection cc = this.getClientConnection(channel);
+                            cc = this.getContextConnection(ctx);
+
+                            HandlerWatchdog watchdog = this.watchdog;
+                            packet = watchdog == null ? handler.apply(cc, packet) :
+                                    watchdog.apply(handler, cc, packet, true);
+                        }
 
-                            packet = handler.apply(cc, packet);
+                        BiFunction<ClientConnection, Object, Object>[] phaseHandlers = this.inPhaseHandlers;
+                        if (phaseHandlers != null && packet != null) {
+                            if (cc == null) {
+                                cc = this.getContextConnection(ctx);
+                            }
+
+                            BiFunction<ClientConnection, Object, Object> phaseHandler =
+                                    phaseHandlers[cc.getPhase().ordinal()];
+                            if (phaseHandler != null) {
+                                HandlerWatchdog watchdog = this.watchdog;
+                                packet = watchdog == null ? phaseHandler.apply(cc, packet) :
+                                        watchdog.apply(phaseHandler, cc, packet, true);
+                            }
                         }
 
                         if (packet != null) {
-                            invokeMethod(CHC_FIRE_CH_READ_ME, ctx, packet);
+                            PacketTap[] taps = this.taps;
+                            if (taps.length > 0) {
+                                if (cc == null) {
+                                    cc = this.getContextConnection(ctx);
+                                }
+
+                                long timestamp = System.nanoTime();
+                                for (PacketTap tap : taps) {
+                                    tap.publish(cc, packet, true, timestamp);
+                                }
+                            }
+
+                            MainThreadConsumer[] consumers = this.mainThreadConsumers;
+                            if (consumers.length > 0) {
+                                if (cc == null) {
+                                    cc = this.getContextConnection(ctx);
+                                }
+
+                                for (MainThreadConsumer consumer : consumers) {
+                                    consumer.offer(cc, packet);
+                                }
+                            }
+
+                            // The handshake switches the connection to
+                            // the phase that it requests
+                            if (packet.getClass() == ConnectionHandles.PHISP_CLS) {
+                                if (cc == null) {
+                                    cc = this.getContextConnection(ctx);
+                                }
+
+                                cc.phase = ProtocolPhase.of(
+                                        getFieldValue(ConnectionHandles.PHISP_NEXT_PROTOCOL, packet));
+                            }
+
+                            CHC_FIRE_CH_READ_MH.invokeExact(ctx, packet);
                         }
 
                         return null;
                     } else {
-                        String mappedName = "fire" + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
-                        return this.handleAdaptedProxyMethods(methodName, mappedName, CHC_CLS,
-                                args, CIH_FORWARD_CACHE);
+                        if (methodName.equals(CIH_CH_READ_COMPLETE_ME_NAME)) {
+                            Consumer<ClientConnection> handler = this.readBatchHandler;
+                            if (handler != null) {
+                                ClientConnection cc = this.getContextConnection(args[0]);
+
+                                HandlerWatchdog watchdog = this.watchdog;
+                                if (watchdog == null) {
+                                    handler.accept(cc);
+                                } else {
+                                    watchdog.accept(handler, cc, true);
+                                }
+                            }
+                        }
+
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.INBOUND);
                     }
                 });
     }
@@ -664,26 +1461,529 @@ public class TinierProtocol {
                         Object packet = args[1];
                         Object channelPromise = args[2];
 
-                        BiFunction<ClientConnection, Object, Object> handler = this.outHandler;
-                        if (handler != null) {
-                            Object channel = invokeMethod(CHC_CHANNEL_ME, ctx);
-                            ClientConnection cc = this.getClientConnection(channel);
+                        ClientConnection cc = null;
+                        packet = this.interceptOutbound(ctx, null, packet);
+                        if (packet != null) {
+                            // Frames are prefixed with the uncompressed
+                            // length once compression is enabled
+                            if (packet.getClass() == ConnectionHandles.PLOSC_CLS) {
+                                if (cc == null) {
+                                    cc = this.getContextConnection(ctx);
+                                }
 
-                            packet = handler.apply(cc, packet);
+                                int threshold = getFieldValue(ConnectionHandles.PLOSC_THRESHOLD, packet);
+                                this.setCompressedOnSend(ctx, cc, threshold >= 0, channelPromise);
+                                if (threshold >= 0 && this.compressionOffload != null) {
+                                    this.addCompressionStageOnSend(ctx, channelPromise);
+                                }
+                            }
+
+                            COI_WRITE_MH.invokeExact(ctx, packet, channelPromise);
+
+                            // The connection plays once it has been
+                            // told that it has logged in
+                            if (packet.getClass() == ConnectionHandles.PLOS_CLS) {
+                                if (cc == null) {
+                                    cc = this.getContextConnection(ctx);
+                                }
+
+                                cc.phase = ProtocolPhase.PLAY;
+                            }
                         }
 
-                        if (packet != null) {
-                            invokeMethod(COI_WRITE_ME, ctx, packet, channelPromise);
+                        return null;
+                    } else {
+                        if (methodName.equals(COH_FLUSH_ME_NAME)) {
+                            Consumer<ClientConnection> handler = this.flushHandler;
+                            if (handler != null) {
+                                ClientConnection cc = this.getContextConnection(args[0]);
+
+                                HandlerWatchdog watchdog = this.watchdog;
+                                if (watchdog == null) {
+                                    handler.accept(cc);
+                                } else {
+                                    watchdog.accept(handler, cc, false);
+                                }
+                            }
+                        }
+
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.OUTBOUND);
+                    }
+                });
+    }
+
+    /**
+     * Passes an outbound packet to the outbound packet,
+     * phase and rewrite handlers, filters out the hidden
+     * entities and publishes it to the taps.
+     *
+     * <p>This is called from the channel's event loop.</p>
+     *
+     * @param ctx the context of the outbound interceptor,
+     * used to find the connection if it is not given
+     * @param cc the connection, or {@code null} to find it
+     * only if it is needed
+     * @param packet the outbound packet
+     * @return the packet to write, or {@code null} if it
+     * should be dropped
+     */
+    private Object interceptOutbound(Object ctx, ClientConnection cc, Object packet) {
+        BiFunction<ClientConnection, Object, Object> handler = this.outHandler;
+        if (handler != null) {
+            if (cc == null) {
+                cc = this.getContextConnection(ctx);
+            }
+
+            HandlerWatchdog watchdog = this.watchdog;
+            packet = watchdog == null ? handler.apply(cc, packet) :
+                    watchdog.apply(handler, cc, packet, false);
+        }
+
+        BiFunction<ClientConnection, Object, Object>[] phaseHandlers = this.outPhaseHandlers;
+        if (phaseHandlers != null && packet != null) {
+            if (cc == null) {
+                cc = this.getContextConnection(ctx);
+            }
+
+            BiFunction<ClientConnection, Object, Object> phaseHandler =
+                    phaseHandlers[cc.getPhase().ordinal()];
+            if (phaseHandler != null) {
+                HandlerWatchdog watchdog = this.watchdog;
+                packet = watchdog == null ? phaseHandler.apply(cc, packet) :
+                        watchdog.apply(phaseHandler, cc, packet, false);
+            }
+        }
+
+        BiConsumer<ClientConnection, PacketRewrite> rewriteHandler = this.outRewriteHandler;
+        if (rewriteHandler != null && packet != null) {
+            if (cc == null) {
+                cc = this.getContextConnection(ctx);
+            }
+
+            // The connection's rewrite is taken while in
+            // use, so a packet sent by the handler
+            // gets a rewrite of its own
+            PacketRewrite rewrite = cc.rewrite;
+            if (rewrite == null) {
+                rewrite = new PacketRewrite();
+            } else {
+                cc.rewrite = null;
+            }
+
+            rewrite.reset(packet);
+            rewriteHandler.accept(cc, rewrite);
+            packet = rewrite.getResult();
+
+            rewrite.reset(null);
+            cc.rewrite = rewrite;
+        }
+
+        // Hidden entities are filtered once the
+        // handlers have seen the packet, so that
+        // they also apply to the packets that the
+        // handlers return
+        if (packet != null && ClientConnection.isAnyEntityHidden()) {
+            if (cc == null) {
+                cc = this.getContextConnection(ctx);
+            }
+
+            packet = cc.filterHiddenEntities(packet);
+        }
+
+        if (packet != null) {
+            PacketTap[] taps = this.taps;
+            if (taps.length > 0) {
+                if (cc == null) {
+                    cc = this.getContextConnection(ctx);
+                }
+
+                long timestamp = System.nanoTime();
+                for (PacketTap tap : taps) {
+                    tap.publish(cc, packet, false, timestamp);
+                }
+            }
+        }
+
+        return packet;
+    }
+
+    /**
+     * Creates a ChannelInboundHandler proxy which counts
+     * the bytes of each frame received by the given
+     * connection.
+     *
+     * @param cc the connection whose bytes to count
+     * @return the ChannelInboundHandler counting inbound
+     * frames
+     */
+    private Object createWireInProxy(ClientConnection cc) {
+        return Proxy.newProxyInstance(CIH_CLS.getClassLoader(),
+                new Class<?>[]{CIH_CLS},
+                (o, method, args) -> {
+                    String methodName = method.getName();
+                    if (methodName.equals(CIH_CH_READ_ME_NAME)) {
+                        Object ctx = args[0];
+                        Object frame = args[1];
+                        if (SendingHandles.BYTE_BUF_CLS.isInstance(frame)) {
+                            // The server adds its decompressor once
+                            // it has sent the packet enabling
+                            // compression
+                            if (!cc.isInboundCompressed && cc.isOutboundCompressed) {
+                                Object pipelineInst = invokeMethod(CHC_PIPELINE_ME, ctx);
+                                cc.isInboundCompressed =
+                                        invokeMethod(CP_CONTEXT_ME, pipelineInst, MC_DECOMPRESS_ID) != null;
+                            }
+
+                            cc.recordFrame(cc.inboundBandwidth, frame, cc.isInboundCompressed);
+                        }
+
+                        CHC_FIRE_CH_READ_MH.invokeExact(ctx, frame);
+                        return null;
+                    } else {
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.INBOUND);
+                    }
+                });
+    }
+
+    /**
+     * Creates a ChannelOutboundHandler proxy which counts
+     * the bytes of each frame sent to the given connection.
+     *
+     * @param cc the connection whose bytes to count
+     * @return the ChannelOutboundHandler counting outbound
+     * frames
+     */
+    private Object createWireOutProxy(ClientConnection cc) {
+        return Proxy.newProxyInstance(COH_CLS.getClassLoader(),
+                new Class<?>[]{COH_CLS},
+                (o, method, args) -> {
+                    String methodName = method.getName();
+                    if (methodName.equals(COH_WRITE_ME_NAME)) {
+                        Object frame = args[1];
+                        if (SendingHandles.BYTE_BUF_CLS.isInstance(frame)) {
+                            cc.recordFrame(cc.outboundBandwidth, frame, cc.isOutboundCompressed);
                         }
 
+                        COI_WRITE_MH.invokeExact(args[0], frame, args[2]);
                         return null;
                     } else {
-                        return this.handleAdaptedProxyMethods(methodName, methodName, COI_CLS,
-                                args, COH_FORWARD_CACHE);
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.OUTBOUND);
                     }
                 });
     }
 
+    /**
+     * Creates a ChannelOutboundHandler proxy which passes
+     * the large frames sent to a connection to the given
+     * compression offload.
+     *
+     * @param offload the offload compressing large frames
+     * @return the ChannelOutboundHandler placed before the
+     * server's compressor
+     */
+    private Object createCompressionStage(CompressionOffload offload) {
+        CompressionOffload.Stage stage = new CompressionOffload.Stage(offload);
+        return Proxy.newProxyInstance(COH_CLS.getClassLoader(),
+                new Class<?>[]{COH_CLS},
+                (o, method, args) -> {
+                    String methodName = method.getName();
+                    if (methodName.equals(COH_WRITE_ME_NAME)) {
+                        stage.write(args[0], args[1], args[2]);
+                        return null;
+                    } else {
+                        switch (methodName) {
+                            case COH_FLUSH_ME_NAME:
+                                stage.flush();
+                                break;
+                            case "handlerAdded":
+                                stage.added(args[0]);
+                                break;
+                            case "handlerRemoved":
+                                stage.removed();
+                                break;
+                        }
+
+                        return this.handleAdaptedProxyMethods(method, args, ForwardingTables.OUTBOUND);
+                    }
+                });
+    }
+
+    /**
+     * Adds, if not already, the compression stage to the
+     * given pipeline if a compression offload is set and
+     * the server's compressor is present.
+     *
+     * @param pipelineInst the pipeline of the connection
+     */
+    private void addCompressionStage(Object pipelineInst) {
+        CompressionOffload offload = this.compressionOffload;
+        if (offload == null ||
+                invokeMethod(CP_CONTEXT_ME, pipelineInst, MC_COMPRESS_ID) == null ||
+                invokeMethod(CP_CONTEXT_ME, pipelineInst, this.compressionStageId) != null) {
+            return;
+        }
+
+        // Frames are written from the encoder to the
+        // compressor, so the stage goes between them
+        invokeMethod(CP_ADD_AFTER_ME, pipelineInst,
+                MC_COMPRESS_ID, this.compressionStageId, this.createCompressionStage(offload));
+    }
+
+    /**
+     * Marks the frames sent to the given connection as
+     * compressed or not once the packet changing the
+     * compression has been written.
+     *
+     * <p>The packet itself is sent with the previous
+     * compression, so the flag is only changed after the
+     * write completes, or by a later task on the event loop
+     * if the write has no promise to listen to.</p>
+     *
+     * @param ctx the context of the outbound interceptor
+     * @param cc the connection to which the packet is sent
+     * @param isCompressed whether frames sent after the
+     * packet are compressed
+     * @param channelPromise the promise of the packet
+     */
+    private void setCompressedOnSend(Object ctx, ClientConnection cc, boolean isCompressed,
+                                     Object channelPromise) {
+        if ((boolean) invokeMethod(CF_IS_VOID_ME, channelPromise)) {
+            Executor ctxExecutor = invokeMethod(CHC_EXECUTOR_ME, ctx);
+            ctxExecutor.execute(() -> cc.isOutboundCompressed = isCompressed);
+            return;
+        }
+
+        Object listener = newFutureListener("TinierProtocol compression listener",
+                () -> cc.isOutboundCompressed = isCompressed);
+        invokeMethod(CF_ADD_LISTENER_ME, channelPromise, listener);
+    }
+
+    /**
+     * Adds the compression stage once the packet enabling
+     * compression has been sent.
+     *
+     * <p>The server adds its compressor from a listener
+     * that it adds to the packet's promise once the write
+     * returns. Listeners are notified in the order in
+     * which they are added, so the stage's listener is
+     * added by a later task on the event loop.</p>
+     *
+     * @param ctx the context of the outbound interceptor
+     * @param channelPromise the promise of the packet
+     * enabling compression
+     */
+    private void addCompressionStageOnSend(Object ctx, Object channelPromise) {
+        if ((boolean) invokeMethod(CF_IS_VOID_ME, channelPromise)) {
+            return;
+        }
+
+        Object pipelineInst = invokeMethod(CHC_PIPELINE_ME, ctx);
+        Object listener = newFutureListener("TinierProtocol compression stage installer",
+                () -> this.addCompressionStage(pipelineInst));
+
+        Executor ctxExecutor = invokeMethod(CHC_EXECUTOR_ME, ctx);
+        ctxExecutor.execute(() -> invokeMethod(CF_ADD_LISTENER_ME, channelPromise, listener));
+    }
+
+    /**
+     * Sends the given NMS packet to each of the given
+     * connections, encoding it only once.
+     *
+     * <p>This is equivalent to
+     * {@link #broadcast(Object, Collection, boolean)} without
+     * passing the packet to the outbound packet handler.</p>
+     *
+     * @param packet the NMS packet instance
+     * @param connections the connections to which to send
+     * the packet
+     */
+    public void broadcast(Object packet, Collection<ClientConnection> connections) {
+        this.broadcast(packet, connections, false);
+    }
+
+    /**
+     * Sends the given NMS packet to each of the given
+     * connections, encoding it only once.
+     *
+     * <p>The packet is serialized once, and compressed
+     * once for connections that use compression, and a
+     * duplicate of the encoded buffer is then written to
+     * each connection past the server's packet encoder.
+     * Connections with a compression stage are written the
+     * uncompressed buffer, which the stage compresses in
+     * order with the other frames it is sent. Connections
+     * that are not yet in the play state are sent the
+     * packet normally.</p>
+     *
+     * <p>If the packet is intercepted, it is passed on each
+     * connection's event loop to the outbound packet,
+     * phase and rewrite handlers and to the taps, just as
+     * a packet sent by the server is. If the handlers
+     * return a different packet, that packet is encoded
+     * for that connection alone, and if they return
+     * {@code null}, the packet is not sent to that
+     * connection. Otherwise, the handlers and taps do not
+     * see the packet.</p>
+     *
+     * @param packet the NMS packet instance
+     * @param connections the connections to which to send
+     * the packet
+     * @param intercept {@code true} to pass the packet to
+     * the outbound handlers for each connection
+     */
+    public void broadcast(Object packet, Collection<ClientConnection> connections, boolean intercept) {
+        BroadcastEncoding encoding = new BroadcastEncoding(packet);
+        try {
+            for (ClientConnection cc : connections) {
+                Object channel = cc.getRawChannel();
+                Object pipelineInst;
+                try {
+                    pipelineInst = (Object) CH_PIPELINE_MH.invokeExact(channel);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+
+                // The pre-encoded buffer is written by the
+                // handler before the compressor if there is
+                // one, or else before the encoder. Frames are
+                // left uncompressed for the compression stage
+                // so that they stay in order with the frames
+                // that it is compressing
+                Object frameCtx = null;
+                Object frame = null;
+                if (cc.getPhase() == ProtocolPhase.PLAY) {
+                    Object encoded = null;
+                    if (getPipelineContext(pipelineInst, this.compressionStageId) == null) {
+                        frameCtx = getPipelineContext(pipelineInst, MC_COMPRESS_ID);
+                        if (frameCtx != null) {
+                            Object compressor;
+                            try {
+                                compressor = (Object) CP_GET_MH.invokeExact(pipelineInst, (Object) MC_COMPRESS_ID);
+                            } catch (Throwable t) {
+                                throw new RuntimeException(t);
+                            }
+
+                            encoded = encoding.getCompressed(compressor);
+                        }
+                    }
+
+                    if (frameCtx == null) {
+                        frameCtx = getPipelineContext(pipelineInst, MC_ENCODER_ID);
+                        if (frameCtx != null) {
+                            encoded = encoding.getUncompressed();
+                        }
+                    }
+
+                    if (encoded != null) {
+                        frame = invokeMethod(SendingHandles.BB_RETAINED_DUPLICATE_ME, encoded);
+                    }
+                }
+
+                if (!intercept) {
+                    // Pre-encoded frames skip the outbound interceptor,
+                    // which would otherwise filter them
+                    Object toSend = ClientConnection.isAnyEntityHidden() ?
+                            cc.filterHiddenEntities(packet) : packet;
+                    this.sendEncoded(cc, pipelineInst, packet, toSend, frameCtx, frame);
+                    continue;
+                }
+
+                Object eventLoop;
+                try {
+                    eventLoop = (Object) CH_EVENT_LOOP_MH.invokeExact(channel);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+
+                Object sendCtx = frameCtx;
+                Object sendFrame = frame;
+                try {
+                    ((Executor) eventLoop).execute(() -> this.sendEncoded(cc, pipelineInst, packet,
+                            this.interceptOutbound(null, cc, packet), sendCtx, sendFrame));
+                } catch (RejectedExecutionException e) {
+                    // The channel has been closed
+                    if (frame != null) {
+                        invokeMethod(SendingHandles.RC_RELEASE_ME, frame);
+                    }
+                }
+            }
+        } finally {
+            encoding.release();
+        }
+    }
+
+    /**
+     * Writes a broadcast packet to the given connection,
+     * using the pre-encoded frame if the packet was not
+     * replaced.
+     *
+     * @param cc the connection to which to send the packet
+     * @param pipelineInst the pipeline of the connection
+     * @param packet the NMS packet being broadcast
+     * @param toSend the packet to send to the connection,
+     * or {@code null} if it should not be sent
+     * @param frameCtx the context past which to write the
+     * frame
+     * @param frame a duplicate of the encoded packet, or
+     * {@code null} if it cannot be written to the
+     * connection
+     */
+    private void sendEncoded(ClientConnection cc, Object pipelineInst, Object packet, Object toSend,
+                             Object frameCtx, Object frame) {
+        if (toSend == packet && frame != null) {
+            try {
+                COI_WRITE_AND_FLUSH_MH.invokeExact(frameCtx, frame);
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+
+            return;
+        }
+
+        if (frame != null) {
+            invokeMethod(SendingHandles.RC_RELEASE_ME, frame);
+        }
+
+        if (toSend != null) {
+            this.sendUnintercepted(cc, pipelineInst, toSend);
+        }
+    }
+
+    /**
+     * Sends the given packet to the connection without
+     * passing it to this instance's outbound packet
+     * handler, if possible.
+     *
+     * @param cc the connection to which to send the packet
+     * @param pipelineInst the pipeline of the connection
+     * @param packet the NMS packet instance
+     */
+    private void sendUnintercepted(ClientConnection cc, Object pipelineInst, Object packet) {
+        Object outCtx = getPipelineContext(pipelineInst, this.packetOutProxyId);
+        if (outCtx != null) {
+            invokeMethod(COI_WRITE_AND_FLUSH_ME, outCtx, packet);
+        } else {
+            cc.sendPacket(packet);
+        }
+    }
+
+    /**
+     * Obtains the context of the handler with the given
+     * name in a pipeline.
+     *
+     * @param pipelineInst the pipeline
+     * @param name the name of the handler
+     * @return the ChannelHandlerContext, or {@code null} if
+     * the pipeline has no such handler
+     */
+    private static Object getPipelineContext(Object pipelineInst, String name) {
+        try {
+            return (Object) CP_CONTEXT_MH.invokeExact(pipelineInst, (Object) name);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
     /**
      * Obtains the client connection cached for a given
      * Netty Channel object.
@@ -696,7 +1996,25 @@ public class TinierProtocol {
      * channel
      */
     private ClientConnection getClientConnection(Object channel) {
-        return this.connectionMap.computeIfAbsent(channel, k -> new ClientConnection(channel));
+        return this.connectionMap.computeIfAbsent(channel, ClientConnection::new);
+    }
+
+    /**
+     * Obtains the ClientConnection for the channel of the
+     * given ChannelHandlerContext.
+     *
+     * @param ctx the ChannelHandlerContext
+     * @return the ClientConnection cached for the channel
+     */
+    private ClientConnection getContextConnection(Object ctx) {
+        Object channel;
+        try {
+            channel = (Object) CHC_CHANNEL_MH.invokeExact(ctx);
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+
+        return this.getClientConnection(channel);
     }
 
     /**
@@ -731,6 +2049,151 @@ public class TinierProtocol {
         });
     }
 
+    /**
+     * The handles used to find and track connections to
+     * the server, resolved when interception begins rather
+     * than when this class is loaded.
+     *
+     * <p>Initializing this class walks from the Bukkit
+     * server to its ServerConnection.</p>
+     */
+    private static final class ConnectionHandles {
+        // obc.CraftServer
+        static final Class<?> CS_CLS = lookupClass(OBC_PACKAGE + "CraftServer");
+        // DedicatedPlayerList CraftServer#getHandle()
+        static final Method CS_GET_HANDLE_ME = lookupMethod(CS_CLS, "getHandle");
+        // nms.DedicatedPlayerList
+        static final Class<?> DPL_CLS = lookupClass(NMS_PACKAGE + "DedicatedPlayerList");
+        // DedicatedServer DedicatedPlayerList#getServer()
+        static final Method DPL_GET_SERVER_ME = lookupMethod(DPL_CLS, "getServer");
+        // nms.MinecraftServer
+        static final Class<?> MS_CLS = lookupClass(NMS_PACKAGE + "MinecraftServer");
+        // ServerConnection MinecraftServer#getServerConnection()
+        static final Method DS_GET_SERVER_CONNECTION = lookupMethod(MS_CLS, "getServerConnection");
+        // nms.ServerConnection
+        static final Class<?> SC_CLS = lookupClass(NMS_PACKAGE + "ServerConnection");
+        // List<ChannelFuture> ServerConnection#listeningChannels
+        static final Field SERVER_CHANNELS = lookupField(SC_CLS, "listeningChannels");
+        // List<NetworkManager> ServerConnection#connectedChannels
+        static final Field CLIENT_CONNECTIONS = lookupField(SC_CLS, "connectedChannels");
+
+        static final Object MINECRAFT_SERVER_INST;
+        static final Object SERVER_CONNECTION_INST;
+
+        // Initialize the ServerConnection instance held by the server
+        static {
+            Server csInstance = Bukkit.getServer();
+            Object dplInstance = invokeMethod(CS_GET_HANDLE_ME, csInstance);
+            MINECRAFT_SERVER_INST = invokeMethod(DPL_GET_SERVER_ME, dplInstance);
+            SERVER_CONNECTION_INST = invokeMethod(DS_GET_SERVER_CONNECTION, MINECRAFT_SERVER_INST);
+        }
+
+        // nms.NetworkManager
+        static final Class<?> NM_CLS = lookupClass(NMS_PACKAGE + "NetworkManager");
+        // Channel NetworkManager#channel
+        static final Field NM_CHANNEL = lookupField(NM_CLS, "channel");
+
+        // Attribute AttributeMap#attr(AttributeKey)
+        static final Method AM_ATTR_ME = lookupMethod(lookupClass("io.netty.util.AttributeMap"), "attr",
+                lookupClass("io.netty.util.AttributeKey"));
+        // Object Attribute#get()
+        static final Method ATTR_GET_ME = lookupMethod(lookupClass("io.netty.util.Attribute"), "get");
+        // AttributeKey<EnumProtocol> NetworkManager#c, found by type since its
+        // name is obfuscated
+        static final Object NM_PROTOCOL_KEY = lookupStaticValue(NM_CLS,
+                lookupClass("io.netty.util.AttributeKey"));
+        // nms.EnumProtocol
+        static final Class<?> EP_CLS = lookupClass(NMS_PACKAGE + "EnumProtocol");
+        // EnumProtocol#PLAY
+        static final Object EP_PLAY_INST = lookupEnumConstant(EP_CLS, "PLAY");
+
+        // nms.PacketLoginOutSetCompression
+        static final Class<?> PLOSC_CLS = lookupClass(NMS_PACKAGE + "PacketLoginOutSetCompression");
+        // int PacketLoginOutSetCompression#a
+        static final Field PLOSC_THRESHOLD = lookupField(PLOSC_CLS, "a");
+        // nms.PacketHandshakingInSetProtocol
+        static final Class<?> PHISP_CLS = lookupClass(NMS_PACKAGE + "PacketHandshakingInSetProtocol");
+        // EnumProtocol PacketHandshakingInSetProtocol#d, the requested phase
+        static final Field PHISP_NEXT_PROTOCOL = lookupInstanceField(PHISP_CLS, EP_CLS);
+        // nms.PacketLoginOutSuccess
+        static final Class<?> PLOS_CLS = lookupClass(NMS_PACKAGE + "PacketLoginOutSuccess");
+    }
+
+    /**
+     * The handles used to create, inspect and release the
+     * buffers sent to connections, resolved when the first
+     * buffer is handled.
+     */
+    private static final class SendingHandles {
+        // netty.Unpooled
+        static final Class<?> UNPOOLED_CLS = lookupClass("io.netty.buffer.Unpooled");
+        // ByteBuf Unpooled#buffer()
+        static final Method UNPOOLED_BUFFER_ME = lookupMethod(UNPOOLED_CLS, "buffer");
+        // ByteBuf Unpooled#buffer(int)
+        static final Method UNPOOLED_BUFFER_CAPACITY_ME = lookupMethod(UNPOOLED_CLS, "buffer", int.class);
+        // ByteBuf Unpooled#wrappedBuffer(byte[])
+        static final Method UNPOOLED_WRAPPED_BUFFER_ME = lookupMethod(UNPOOLED_CLS, "wrappedBuffer",
+                byte[].class);
+        // netty.ByteBuf
+        static final Class<?> BYTE_BUF_CLS = lookupClass("io.netty.buffer.ByteBuf");
+        // ByteBuf ByteBuf#retainedDuplicate()
+        static final Method BB_RETAINED_DUPLICATE_ME = lookupMethod(BYTE_BUF_CLS, "retainedDuplicate");
+        // int ByteBuf#readableBytes()
+        static final Method BB_READABLE_BYTES_ME = lookupMethod(BYTE_BUF_CLS, "readableBytes");
+        // int ByteBuf#readerIndex()
+        static final Method BB_READER_INDEX_ME = lookupMethod(BYTE_BUF_CLS, "readerIndex");
+        // byte ByteBuf#getByte(int)
+        static final Method BB_GET_BYTE_ME = lookupMethod(BYTE_BUF_CLS, "getByte", int.class);
+        // ByteBuf ByteBuf#getBytes(int, byte[])
+        static final Method BB_GET_BYTES_ME = lookupMethod(BYTE_BUF_CLS, "getBytes",
+                int.class, byte[].class);
+        // ByteBuf ByteBuf#getBytes(int, byte[], int, int)
+        static final Method BB_GET_BYTES_RANGE_ME = lookupMethod(BYTE_BUF_CLS, "getBytes",
+                int.class, byte[].class, int.class, int.class);
+        // ByteBuf ByteBuf#writeByte(int)
+        static final Method BB_WRITE_BYTE_ME = lookupMethod(BYTE_BUF_CLS, "writeByte", int.class);
+        // ByteBuf ByteBuf#writeBytes(byte[], int, int)
+        static final Method BB_WRITE_BYTES_ME = lookupMethod(BYTE_BUF_CLS, "writeBytes",
+                byte[].class, int.class, int.class);
+        // ByteBuf ByteBuf#writeBytes(ByteBuf, int, int)
+        static final Method BB_WRITE_BUF_ME = lookupMethod(BYTE_BUF_CLS, "writeBytes",
+                BYTE_BUF_CLS, int.class, int.class);
+        // byte[] ByteBuf#array()
+        static final Method BB_ARRAY_ME = lookupMethod(BYTE_BUF_CLS, "array");
+        // int ByteBuf#arrayOffset()
+        static final Method BB_ARRAY_OFFSET_ME = lookupMethod(BYTE_BUF_CLS, "arrayOffset");
+        // int ByteBuf#writerIndex()
+        static final Method BB_WRITER_INDEX_ME = lookupMethod(BYTE_BUF_CLS, "writerIndex");
+        // ByteBuf ByteBuf#writerIndex(int)
+        static final Method BB_SET_WRITER_INDEX_ME = lookupMethod(BYTE_BUF_CLS, "writerIndex", int.class);
+        // ByteBuf ByteBuf#ensureWritable(int)
+        static final Method BB_ENSURE_WRITABLE_ME = lookupMethod(BYTE_BUF_CLS, "ensureWritable", int.class);
+        // int ByteBuf#writableBytes()
+        static final Method BB_WRITABLE_BYTES_ME = lookupMethod(BYTE_BUF_CLS, "writableBytes");
+        // boolean ReferenceCounted#release()
+        static final Method RC_RELEASE_ME = lookupMethod(lookupClass("io.netty.util.ReferenceCounted"),
+                "release");
+
+        // nms.Packet
+        static final Class<?> PACKET_CLS = lookupClass(NMS_PACKAGE + "Packet");
+        // int PacketCompressor#c, the compression threshold
+        static final Field PCOMP_THRESHOLD = lookupInstanceField(
+                lookupClass(NMS_PACKAGE + "PacketCompressor"), int.class);
+    }
+
+    /**
+     * The handles forwarding each ChannelInboundHandler and
+     * ChannelOutboundHandler method not intercepted by a
+     * proxy, keyed by the proxied method and built in one
+     * pass when a proxy first forwards a call.
+     */
+    private static final class ForwardingTables {
+        // Inbound events are forwarded to the fire method of the same name
+        static final Map<Method, MethodHandle> INBOUND = buildForwardingTable(CIH_CLS, true, CHC_CLS);
+        // Outbound operations are forwarded to the method of the same name
+        static final Map<Method, MethodHandle> OUTBOUND = buildForwardingTable(COH_CLS, false, COI_CLS);
+    }
+
     /**
      * This is a wrapper class over a client's connection
      * with the server.
@@ -750,33 +2213,73 @@ public class TinierProtocol {
      * it provides.</p>
      */
     public static class ClientConnection {
-        // obc.entity.CraftPlayer
-        private static final Class<?> CRAFT_PLAYER_CLS = lookupClass(OBC_PACKAGE + "entity.CraftPlayer");
-        // EntityPlayer CraftPlayer#getHandle()
-        private static final Method CRAFT_PLAYER_GET_HANDLE_ME = lookupMethod(CRAFT_PLAYER_CLS, "getHandle");
-        // nms.EntityPlayer
-        private static final Class<?> ENTITY_PLAYER_CLS = lookupClass(NMS_PACKAGE + "EntityPlayer");
-        // PlayerConnection EntityPlayer#playerConnection
-        private static final Field ENTITY_PLAYER_PC = lookupField(ENTITY_PLAYER_CLS, "playerConnection");
-
-        // nms.PlayerConnection
-        private static final Class<?> PC_CLS = lookupClass(NMS_PACKAGE + "PlayerConnection");
-        // nms.Packet
-        private static final Class<?> PACKET_CLS = lookupClass(NMS_PACKAGE + "Packet");
-        // void PlayerConnection#sendPacket(Packet)
-        private static final Method PC_SEND_PACKET_ME = lookupMethod(PC_CLS, "sendPacket",
-                PACKET_CLS);
-        // NetworkManager PlayerConnection#networkManager
-        private static final Field PC_NETWORK_MANAGER = lookupField(PC_CLS, "networkManager");
+        /**
+         * The handles used to bind a connection to a
+         * player, resolved when the first player joins
+         * rather than when the first packet is intercepted.
+         */
+        private static final class PlayerBinding {
+            // obc.entity.CraftPlayer
+            static final Class<?> CRAFT_PLAYER_CLS = lookupClass(OBC_PACKAGE + "entity.CraftPlayer");
+            // EntityPlayer CraftPlayer#getHandle()
+            static final Method CRAFT_PLAYER_GET_HANDLE_ME = lookupMethod(CRAFT_PLAYER_CLS, "getHandle");
+            // nms.EntityPlayer
+            static final Class<?> ENTITY_PLAYER_CLS = lookupClass(NMS_PACKAGE + "EntityPlayer");
+            // PlayerConnection EntityPlayer#playerConnection
+            static final Field ENTITY_PLAYER_PC = lookupField(ENTITY_PLAYER_CLS, "playerConnection");
+
+            // nms.PlayerConnection
+            static final Class<?> PC_CLS = lookupClass(NMS_PACKAGE + "PlayerConnection");
+            // void PlayerConnection#sendPacket(Packet)
+            static final Method PC_SEND_PACKET_ME = lookupMethod(PC_CLS, "sendPacket",
+                    SendingHandles.PACKET_CLS);
+            // NetworkManager PlayerConnection#networkManager
+            static final Field PC_NETWORK_MANAGER = lookupField(PC_CLS, "networkManager");
+        }
 
-        // ChannelFuture ChannelOutboundInvoker#writeAndFlush(Object)
-        private static final Method COI_WRITE_AND_FLUSH_ME = lookupMethod(COI_CLS, "writeAndFlush",
-                Object.class);
+        // ChannelFuture Channel#closeFuture()
+        private static final Method CH_CLOSE_FUTURE_ME = lookupMethod(CH_CLS, "closeFuture");
 
         private final Object channelInst;
         private volatile UUID uuid;
         private volatile Object nmsPCon;
 
+        // Values for each ConnectionKey, indexed by slot. The
+        // array is only replaced or written to while holding
+        // the lock on this connection
+        private volatile AtomicReferenceArray<Object> state;
+        // Whether the channel has closed and the listener
+        // clearing the state and the hidden entities has been
+        // added, both guarded by the lock on this connection
+        private boolean isClosed;
+        private boolean hasCloseListener;
+
+        // The number of open connections hiding any entity,
+        // used to skip the lookup of the connection for each
+        // outbound packet if there are none
+        private static final AtomicInteger HIDING_CONNECTIONS = new AtomicInteger();
+        // The entity IDs hidden from this connection, which
+        // is replaced rather than modified, or null if none
+        private volatile EntityIdSet hiddenEntities;
+
+        // Byte counters for each direction, only written by
+        // the channel's event loop
+        private final BandwidthCounter inboundBandwidth = new BandwidthCounter();
+        private final BandwidthCounter outboundBandwidth = new BandwidthCounter();
+        // Whether received and sent frames are prefixed with
+        // their uncompressed length, which is enabled for each
+        // direction at a different time
+        private volatile boolean isInboundCompressed;
+        private volatile boolean isOutboundCompressed;
+        // The protocol phase, updated by the packets that
+        // switch it, or null if it has not been read from the
+        // channel yet
+        private volatile ProtocolPhase phase;
+        // The rewrite reused for each outbound packet, only
+        // used by the channel's event loop, or null while it
+        // is in use
+        private PacketRewrite rewrite;
+
         /**
          * Creates a new client connection wraper for the
          * given Netty channel instance.
@@ -798,8 +2301,8 @@ public class TinierProtocol {
          * player
          */
         static Object getNmsPCon(Player player) {
-            Object entityPlayerInst = invokeMethod(CRAFT_PLAYER_GET_HANDLE_ME, player);
-            return getFieldValue(ENTITY_PLAYER_PC, entityPlayerInst);
+            Object entityPlayerInst = invokeMethod(PlayerBinding.CRAFT_PLAYER_GET_HANDLE_ME, player);
+            return getFieldValue(PlayerBinding.ENTITY_PLAYER_PC, entityPlayerInst);
         }
 
         /**
@@ -812,8 +2315,8 @@ public class TinierProtocol {
          * PlayerConnection
          */
         static Object getChannel(Object nmsPCon) {
-            Object networkManagerInst = getFieldValue(PC_NETWORK_MANAGER, nmsPCon);
-            return getFieldValue(NM_CHANNEL, networkManagerInst);
+            Object networkManagerInst = getFieldValue(PlayerBinding.PC_NETWORK_MANAGER, nmsPCon);
+            return getFieldValue(ConnectionHandles.NM_CHANNEL, networkManagerInst);
         }
 
         /**
@@ -833,9 +2336,13 @@ public class TinierProtocol {
         public void sendPacket(Object packet) {
             Object playerConnection = this.nmsPCon;
             if (playerConnection != null) {
-                invokeMethod(PC_SEND_PACKET_ME, playerConnection, packet);
+                invokeMethod(PlayerBinding.PC_SEND_PACKET_ME, playerConnection, packet);
             } else {
-                invokeMethod(COI_WRITE_AND_FLUSH_ME, this.channelInst, packet);
+                try {
+                    COI_WRITE_AND_FLUSH_MH.invokeExact(this.channelInst, packet);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
             }
         }
 
@@ -914,6 +2421,349 @@ public class TinierProtocol {
             return Bukkit.getPlayer(uuid);
         }
 
+        /**
+         * Obtains the value associated with the given key
+         * for this connection.
+         *
+         * <p>This method does not lock and is intended to be
+         * called from the packet handlers.</p>
+         *
+         * @param key the key of the value
+         * @param <T> the type of value
+         * @return the value, or {@code null} if none is set
+         */
+        @SuppressWarnings("unchecked")
+        public <T> T get(ConnectionKey<T> key) {
+            AtomicReferenceArray<Object> state = this.state;
+            if (state == null || key.slot >= state.length()) {
+                return null;
+            }
+
+            return (T) state.get(key.slot);
+        }
+
+        /**
+         * Associates the given value with the given key for
+         * this connection.
+         *
+         * <p>Every value is cleared once the channel is
+         * closed, and values set after that are ignored.</p>
+         *
+         * @param key the key of the value
+         * @param value the value, or {@code null} to remove
+         * it
+         * @param <T> the type of value
+         */
+        public <T> void set(ConnectionKey<T> key, T value) {
+            synchronized (this) {
+                if (this.isClosed) {
+                    return;
+                }
+
+                this.ensureStateCapacity(key.slot).set(key.slot, value);
+            }
+        }
+
+        /**
+         * Obtains the value associated with the given key,
+         * creating and setting it if none is set.
+         *
+         * @param key the key of the value
+         * @param factory the supplier of the value if none
+         * is set
+         * @param <T> the type of value
+         * @return the value associated with the key
+         */
+        public <T> T computeIfAbsent(ConnectionKey<T> key, Supplier<? extends T> factory) {
+            T value = this.get(key);
+            if (value != null) {
+                return value;
+            }
+
+            synchronized (this) {
+                value = this.get(key);
+                if (value == null) {
+                    value = factory.get();
+                    if (!this.isClosed) {
+                        this.ensureStateCapacity(key.slot).set(key.slot, value);
+                    }
+                }
+
+                return value;
+            }
+        }
+
+        /**
+         * Ensures that the state array can hold the given
+         * slot, registering the listener that clears it when
+         * the channel closes if it has not been already.
+         *
+         * <p>Must be called while holding the lock on this
+         * connection.</p>
+         *
+         * @param slot the slot that needs to be held
+         * @return the state array
+         */
+        private AtomicReferenceArray<Object> ensureStateCapacity(int slot) {
+            AtomicReferenceArray<Object> state = this.state;
+            if (state != null && slot < state.length()) {
+                return state;
+            }
+
+            int length = Math.max(ConnectionKey.NEXT_SLOT.get(), slot + 1);
+            AtomicReferenceArray<Object> grown = new AtomicReferenceArray<>(length);
+            if (state != null) {
+                for (int i = 0; i < state.length(); i++) {
+                    grown.set(i, state.get(i));
+                }
+            }
+            this.state = grown;
+
+            this.addCloseListener();
+            return grown;
+        }
+
+        /**
+         * Adds, if not already, the listener that clears the
+         * state and the hidden entities of this connection
+         * when the channel closes.
+         *
+         * <p>Must be called while holding the lock on this
+         * connection, and after the state or the hidden
+         * entities have been set, as the listener is called
+         * immediately if the channel has already been closed.
+         * </p>
+         */
+        private void addCloseListener() {
+            if (this.hasCloseListener) {
+                return;
+            }
+
+            this.hasCloseListener = true;
+            Object closeFuture = invokeMethod(CH_CLOSE_FUTURE_ME, this.channelInst);
+            invokeMethod(CF_ADD_LISTENER_ME, closeFuture, this.createCloseListener());
+        }
+
+        /**
+         * Hides the entities with the given IDs from this
+         * connection.
+         *
+         * <p>A single destroy packet is sent for all of the
+         * entities that were not already hidden, and any
+         * outbound packet that spawns or updates one of the
+         * entities is dropped from then on, after it has been
+         * passed to the outbound packet handlers. Hidden
+         * passengers are removed from the packets that mount
+         * passengers onto a visible vehicle.</p>
+         *
+         * <p>Entities are no longer hidden once the
+         * connection closes.</p>
+         *
+         * @param entityIds the IDs of the entities to hide
+         */
+        public void hideEntities(int... entityIds) {
+            int[] newlyHidden;
+            synchronized (this) {
+                if (this.isClosed) {
+                    return;
+                }
+
+                EntityIdSet hidden = this.hiddenEntities;
+                if (hidden == null) {
+                    hidden = EntityIdSet.EMPTY;
+                }
+
+                int count = 0;
+                newlyHidden = new int[entityIds.length];
+                for (int entityId : entityIds) {
+                    if (!hidden.contains(entityId)) {
+                        newlyHidden[count++] = entityId;
+                    }
+                }
+
+                if (count == 0) {
+                    return;
+                }
+
+                newlyHidden = Arrays.copyOf(newlyHidden, count);
+                if (this.hiddenEntities == null) {
+                    HIDING_CONNECTIONS.incrementAndGet();
+                }
+
+                this.hiddenEntities = hidden.with(newlyHidden);
+                this.addCloseListener();
+            }
+
+            this.sendPacket(EntityVisibility.createDestroyPacket(newlyHidden));
+        }
+
+        /**
+         * Stops hiding the entities with the given IDs from
+         * this connection.
+         *
+         * <p>This does not spawn the entities again, they
+         * will only be visible once the server sends the
+         * connection a spawn packet for them, such as when
+         * they move back into tracking range.</p>
+         *
+         * @param entityIds the IDs of the entities to show
+         */
+        public void showEntities(int... entityIds) {
+            synchronized (this) {
+                EntityIdSet hidden = this.hiddenEntities;
+                if (hidden != null) {
+                    hidden = hidden.without(entityIds);
+                    if (hidden.isEmpty()) {
+                        this.hiddenEntities = null;
+                        HIDING_CONNECTIONS.decrementAndGet();
+                    } else {
+                        this.hiddenEntities = hidden;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Determines whether the entity with the given ID is
+         * hidden from this connection.
+         *
+         * @param entityId the ID of the entity
+         * @return {@code true} if the entity is hidden
+         */
+        public boolean isEntityHidden(int entityId) {
+            EntityIdSet hidden = this.hiddenEntities;
+            return hidden != null && hidden.contains(entityId);
+        }
+
+        /**
+         * Filters the entities hidden from this connection
+         * out of the given outbound packet.
+         *
+         * @param packet the outbound packet
+         * @return the packet, a copy of the packet without
+         * the hidden entities, or {@code null} if the packet
+         * should be dropped
+         */
+        Object filterHiddenEntities(Object packet) {
+            EntityIdSet hidden = this.hiddenEntities;
+            if (hidden == null) {
+                return packet;
+            }
+
+            return EntityVisibility.filter(packet, hidden);
+        }
+
+        /**
+         * Determines whether any open connection hides an
+         * entity.
+         *
+         * @return {@code true} if entities may be hidden
+         */
+        static boolean isAnyEntityHidden() {
+            return HIDING_CONNECTIONS.get() != 0;
+        }
+
+        /**
+         * Obtains the protocol phase that this connection is
+         * currently in.
+         *
+         * <p>The phase is read from the channel once, and is
+         * then updated by the interceptors as the handshake
+         * and the login success packets pass through
+         * them.</p>
+         *
+         * @return the protocol phase
+         */
+        public ProtocolPhase getPhase() {
+            ProtocolPhase phase = this.phase;
+            if (phase == null) {
+                Object attribute = invokeMethod(ConnectionHandles.AM_ATTR_ME, this.channelInst,
+                        ConnectionHandles.NM_PROTOCOL_KEY);
+                Object protocol = invokeMethod(ConnectionHandles.ATTR_GET_ME, attribute);
+                phase = ProtocolPhase.of(protocol);
+                this.phase = phase;
+            }
+
+            return phase;
+        }
+
+        /**
+         * Obtains a snapshot of the bytes sent and received
+         * by this connection.
+         *
+         * <p>The counters are only updated if bandwidth
+         * accounting was enabled when the connection was
+         * initialized.</p>
+         *
+         * @return the bandwidth snapshot
+         */
+        public BandwidthSnapshot getBandwidth() {
+            long now = System.nanoTime();
+            BandwidthCounter in = this.inboundBandwidth;
+            BandwidthCounter out = this.outboundBandwidth;
+            return new BandwidthSnapshot(this,
+                    in.wireBytes, in.bytes, in.getRate(now),
+                    out.wireBytes, out.bytes, out.getRate(now));
+        }
+
+        /**
+         * Counts the given frame, which does not include the
+         * length prefix.
+         *
+         * <p>This is only called from the channel's event
+         * loop.</p>
+         *
+         * @param counter the counter for the direction of the
+         * frame
+         * @param frame the frame ByteBuf
+         * @param isCompressed whether frames in the direction
+         * of the frame are prefixed with their uncompressed
+         * length
+         */
+        private void recordFrame(BandwidthCounter counter, Object frame, boolean isCompressed) {
+            int frameLength = invokeMethod(SendingHandles.BB_READABLE_BYTES_ME, frame);
+            int wireLength = frameLength + varIntSize(frameLength);
+
+            // Compressed frames begin with the uncompressed
+            // length, or 0 if the frame is not compressed
+            int length = frameLength;
+            if (isCompressed && frameLength > 0) {
+                int readerIndex = invokeMethod(SendingHandles.BB_READER_INDEX_ME, frame);
+                int dataLength = 0;
+                int dataLengthSize = 0;
+                byte b;
+                do {
+                    b = invokeMethod(SendingHandles.BB_GET_BYTE_ME, frame, readerIndex + dataLengthSize);
+                    dataLength |= (b & 0x7F) << (7 * dataLengthSize++);
+                } while ((b & 0x80) != 0 && dataLengthSize < 5 && dataLengthSize < frameLength);
+
+                length = dataLength == 0 ? frameLength - dataLengthSize : dataLength;
+            }
+
+            counter.record(wireLength, length, System.nanoTime());
+        }
+
+        /**
+         * Creates a GenericFutureListener proxy which clears
+         * the state and the hidden entities of this connection
+         * when the channel's close future completes.
+         *
+         * @return the listener proxy
+         */
+        private Object createCloseListener() {
+            return newFutureListener("TinierProtocol state cleaner for " + this.channelInst, () -> {
+                synchronized (this) {
+                    this.isClosed = true;
+                    this.state = null;
+
+                    if (this.hiddenEntities != null) {
+                        this.hiddenEntities = null;
+                        HIDING_CONNECTIONS.decrementAndGet();
+                    }
+                }
+            });
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) {
@@ -934,85 +2784,3869 @@ public class TinierProtocol {
         }
     }
 
-    // Silenced exception reflection lookup/caller methods
-
     /**
-     * Looks up a class using its FQN (Fully Qualified
-     * Name).
-     *
-     * @param className the FQN
-     * @return the class that was found
-     * @throws RuntimeException if the class was not found
+     * Precomputed accessors used to find which entity an
+     * outbound packet concerns.
      */
-    private static Class<?> lookupClass(String className) {
-        try {
-            return Class.forName(className);
-        } catch (ClassNotFoundException e) {
-            throw new RuntimeException(e);
+    private static class EntityVisibility {
+        // The packets followed by their int fields holding an entity ID
+        private static final String[][] ENTITY_ID_FIELDS = {
+                {"PacketPlayOutSpawnEntity", "a"},
+                {"PacketPlayOutSpawnEntityLiving", "a"},
+                {"PacketPlayOutSpawnEntityExperienceOrb", "a"},
+                {"PacketPlayOutSpawnEntityPainting", "a"},
+                {"PacketPlayOutSpawnEntityWeather", "a"},
+                {"PacketPlayOutNamedEntitySpawn", "a"},
+                {"PacketPlayOutEntityMetadata", "a"},
+                {"PacketPlayOutEntityEquipment", "a"},
+                {"PacketPlayOutEntity", "a"},
+                {"PacketPlayOutEntity$PacketPlayOutRelEntityMove", "a"},
+                {"PacketPlayOutEntity$PacketPlayOutRelEntityMoveLook", "a"},
+                {"PacketPlayOutEntity$PacketPlayOutEntityLook", "a"},
+                {"PacketPlayOutEntityTeleport", "a"},
+                {"PacketPlayOutEntityHeadRotation", "a"},
+                {"PacketPlayOutEntityVelocity", "a"},
+                {"PacketPlayOutEntityStatus", "a"},
+                {"PacketPlayOutEntityEffect", "a"},
+                {"PacketPlayOutRemoveEntityEffect", "a"},
+                {"PacketPlayOutUpdateAttributes", "a"},
+                {"PacketPlayOutAnimation", "a"},
+                {"PacketPlayOutBlockBreakAnimation", "a"},
+                // The attached entity and its holder
+                {"PacketPlayOutAttachEntity", "a", "b"},
+                // The collected item and its collector
+                {"PacketPlayOutCollect", "a", "b"},
+                // The vehicle, whose passengers are in "b"
+                {"PacketPlayOutMount", "a"}
+        };
+        // The packets followed by their int[] fields holding entity
+        // IDs, from which hidden entities are removed rather than
+        // dropping the packet
+        private static final String[][] ENTITY_IDS_FIELDS = {
+                {"PacketPlayOutMount", "b"}
+        };
+
+        // (Object)int and (Object)int[] entity ID getters, and
+        // (Object, int[])void setters, for each packet class; never
+        // modified after initialization
+        private static final Map<Class<?>, MethodHandle[]> ENTITY_ID_GETTERS =
+                lookupAccessors(ENTITY_ID_FIELDS, int.class, false);
+        private static final Map<Class<?>, MethodHandle[]> ENTITY_IDS_GETTERS =
+                lookupAccessors(ENTITY_IDS_FIELDS, int[].class, false);
+        private static final Map<Class<?>, MethodHandle[]> ENTITY_IDS_SETTERS =
+                lookupAccessors(ENTITY_IDS_FIELDS, int[].class, true);
+
+        // PacketPlayOutEntityDestroy#<init>(int[])
+        private static final Constructor<?> DESTROY_CTOR = lookupConstructor(
+                lookupClass(NMS_PACKAGE + "PacketPlayOutEntityDestroy"), int[].class);
+
+        /**
+         * Filters the entities in the given set out of the
+         * given packet.
+         *
+         * <p>The packet is dropped if any of its single
+         * entity IDs is in the set. Otherwise, the IDs in the
+         * set are removed from its entity ID arrays, in a copy
+         * of the packet since it may be shared with other
+         * connections.</p>
+         *
+         * @param packet the outbound packet
+         * @param entityIds the IDs of the entities
+         * @return the packet, a copy of the packet without
+         * the entities, or {@code null} if the packet should
+         * be dropped
+         */
+        static Object filter(Object packet, EntityIdSet entityIds) {
+            Class<?> packetCls = packet.getClass();
+            MethodHandle[] getters = ENTITY_ID_GETTERS.get(packetCls);
+            if (getters == null) {
+                return packet;
+            }
+
+            try {
+                for (MethodHandle getter : getters) {
+                    if (entityIds.contains((int) getter.invokeExact(packet))) {
+                        return null;
+                    }
+                }
+
+                MethodHandle[] arrayGetters = ENTITY_IDS_GETTERS.get(packetCls);
+                if (arrayGetters == null) {
+                    return packet;
+                }
+
+                Object filtered = packet;
+                for (int i = 0; i < arrayGetters.length; i++) {
+                    int[] ids = (int[]) arrayGetters[i].invokeExact(packet);
+                    int[] visibleIds = without(ids, entityIds);
+                    if (visibleIds != ids) {
+                        if (filtered == packet) {
+                            filtered = PacketFactory.of(packetCls).shallowCopy(packet);
+                        }
+
+                        ENTITY_IDS_SETTERS.get(packetCls)[i].invokeExact(filtered, visibleIds);
+                    }
+                }
+
+                return filtered;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
         }
-    }
 
-    /**
-     * Looks up a method from the given class and with the
-     * given method name and parameters.
-     *
-     * @param cls the class containing the method
-     * @param methodName the name of the method
-     * @param params the parameters for the method
-     * @return the method object
-     * @throws RuntimeException if the method cannot be
-     * found
-     */
-    private static Method lookupMethod(Class<?> cls, String methodName, Class<?>... params) {
-        try {
-            return cls.getDeclaredMethod(methodName, params);
-        } catch (NoSuchMethodException e) {
-            throw new RuntimeException(e);
+        /**
+         * Removes the IDs in the given set from the given
+         * array.
+         *
+         * @param ids the array of IDs, may be {@code null}
+         * @param entityIds the IDs to remove
+         * @return the given array if none of its IDs are in
+         * the set, or else a new array without them
+         */
+        private static int[] without(int[] ids, EntityIdSet entityIds) {
+            if (ids == null) {
+                return null;
+            }
+
+            int count = 0;
+            int[] visibleIds = null;
+            for (int i = 0; i < ids.length; i++) {
+                if (entityIds.contains(ids[i])) {
+                    if (visibleIds == null) {
+                        visibleIds = Arrays.copyOf(ids, ids.length);
+                        count = i;
+                    }
+                } else if (visibleIds != null) {
+                    visibleIds[count++] = ids[i];
+                }
+            }
+
+            return visibleIds == null ? ids : Arrays.copyOf(visibleIds, count);
         }
-    }
 
-    /**
-     * Calls the given method on the given instance of the
-     * enclosing class and with the given arguments.
-     *
-     * @param method the method to invoke
-     * @param instance the instance of the enclosing class
-     * on which to call the method, or {@code null} if the
-     * method is static
-     * @param args the arguments to pass to the method
-     * @return the return value of the method invoked
-     * @throws RuntimeException if the method cannot be
-     * accessed or if an error occurred running the method
-     */
-    private static <T> T invokeMethod(Method method, Object instance, Object... args) {
-        try {
-            return (T) method.invoke(instance, args);
-        } catch (IllegalAccessException | InvocationTargetException e) {
-            throw new RuntimeException(e);
+        /**
+         * Looks up a getter or a setter for each of the given
+         * fields, which may be inherited.
+         *
+         * @param fieldSpecs the packet names, each followed by
+         * the names of its fields
+         * @param type the type of the fields
+         * @param isSetter {@code true} to look up setters
+         * rather than getters
+         * @return the getters of type {@code (Object)type}, or
+         * the setters of type {@code (Object, type)void}, for
+         * each packet class
+         */
+        private static Map<Class<?>, MethodHandle[]> lookupAccessors(String[][] fieldSpecs, Class<?> type,
+                                                                     boolean isSetter) {
+            Map<Class<?>, MethodHandle[]> accessors = new HashMap<>();
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodType accessorType = isSetter ? MethodType.methodType(void.class, Object.class, type) :
+                    MethodType.methodType(type, Object.class);
+            for (String[] fieldSpec : fieldSpecs) {
+                Class<?> packetCls = lookupClass(NMS_PACKAGE + fieldSpec[0]);
+                MethodHandle[] packetAccessors = new MethodHandle[fieldSpec.length - 1];
+                for (int i = 1; i < fieldSpec.length; i++) {
+                    // Subclasses of PacketPlayOutEntity inherit "a"
+                    Field field = null;
+                    for (Class<?> cls = packetCls; cls != Object.class && field == null;
+                         cls = cls.getSuperclass()) {
+                        try {
+                            field = cls.getDeclaredField(fieldSpec[i]);
+                        } catch (NoSuchFieldException ignored) {
+                        }
+                    }
+
+                    if (field == null || field.getType() != type) {
+                        throw new RuntimeException("No entity ID field " + fieldSpec[i] + " in " +
+                                packetCls.getName());
+                    }
+
+                    try {
+                        field.setAccessible(true);
+                        MethodHandle accessor = isSetter ? lookup.unreflectSetter(field) :
+                                lookup.unreflectGetter(field);
+                        packetAccessors[i - 1] = accessor.asType(accessorType);
+                    } catch (IllegalAccessException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                accessors.put(packetCls, packetAccessors);
+            }
+
+            return accessors;
+        }
+
+        /**
+         * Creates a packet destroying all of the given
+         * entities on the client.
+         *
+         * @param entityIds the IDs of the entities
+         * @return the destroy packet
+         */
+        static Object createDestroyPacket(int[] entityIds) {
+            return newInstance(DESTROY_CTOR, (Object) entityIds);
         }
     }
 
     /**
-     * Looks up a field from the given class with the given
-     * name.
-     *
-     * <p>This method always makes the field accessible
-     * reflectively</p>
-     *
-     * @param cls the enclosing class containing the field
-     * @param fieldName the name of the field to lookup
-     * @return the field object
-     * @throws RuntimeException if the field is not found
+     * An immutable open-addressing set of entity IDs.
      */
-    private static Field lookupField(Class<?> cls, String fieldName) {
-        try {
-            Field field = cls.getDeclaredField(fieldName);
-            field.setAccessible(true);
+    private static final class EntityIdSet {
+        static final EntityIdSet EMPTY = new EntityIdSet(new int[4], 0, false);
 
-            return field;
-        } catch (NoSuchFieldException e) {
-            throw new RuntimeException(e);
-        }
+        // 0 marks a free slot, so it is tracked separately
+        private final int[] table;
+        private final int size;
+        private final boolean containsZero;
+
+        /**
+         * Creates a new set using the given table.
+         *
+         * @param table the table, whose length is a power of
+         * 2
+         * @param size the number of IDs in the set
+         * @param containsZero whether 0 is in the set
+         */
+        private EntityIdSet(int[] table, int size, boolean containsZero) {
+            this.table = table;
+            this.size = size;
+            this.containsZero = containsZero;
+        }
+
+        /**
+         * Determines whether the given ID is in this set.
+         *
+         * @param id the ID
+         * @return {@code true} if the set contains the ID
+         */
+        boolean contains(int id) {
+            if (id == 0) {
+                return this.containsZero;
+            }
+
+            int[] table = this.table;
+            int mask = table.length - 1;
+            for (int idx = mix(id) & mask; ; idx = (idx + 1) & mask) {
+                int entry = table[idx];
+                if (entry == id) {
+                    return true;
+                }
+
+                if (entry == 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Determines whether this set is empty.
+         *
+         * @return {@code true} if there are no IDs
+         */
+        boolean isEmpty() {
+            return this.size == 0 && !this.containsZero;
+        }
+
+        /**
+         * Creates a copy of this set with the given IDs
+         * added.
+         *
+         * @param ids the IDs to add
+         * @return the new set
+         */
+        EntityIdSet with(int[] ids) {
+            return rebuild(this, ids, null);
+        }
+
+        /**
+         * Creates a copy of this set with the given IDs
+         * removed.
+         *
+         * @param ids the IDs to remove
+         * @return the new set
+         */
+        EntityIdSet without(int[] ids) {
+            return rebuild(this, new int[0], ids);
+        }
+
+        /**
+         * Builds a new set from the IDs in the given set and
+         * the given added IDs, skipping any removed IDs.
+         *
+         * @param set the base set
+         * @param added the IDs to add
+         * @param removed the IDs to remove, or {@code null}
+         * @return the new set
+         */
+        private static EntityIdSet rebuild(EntityIdSet set, int[] added, int[] removed) {
+            EntityIdSet removedSet = removed == null ? EMPTY : EMPTY.with(removed);
+
+            // Keep the load factor at or below 0.5
+            int capacity = 4;
+            while (capacity < (set.size + added.length) * 2) {
+                capacity <<= 1;
+            }
+
+            int[] table = new int[capacity];
+            int size = 0;
+            boolean containsZero = false;
+            for (int i = 0; i < set.table.length + added.length + 1; i++) {
+                int id;
+                if (i < set.table.length) {
+                    id = set.table[i];
+                    if (id == 0) {
+                        continue;
+                    }
+                } else if (i < set.table.length + added.length) {
+                    id = added[i - set.table.length];
+                } else if (set.containsZero) {
+                    id = 0;
+                } else {
+                    continue;
+                }
+
+                if (removedSet.contains(id)) {
+                    continue;
+                }
+
+                if (id == 0) {
+                    containsZero = true;
+                    continue;
+                }
+
+                int mask = capacity - 1;
+                int idx = mix(id) & mask;
+                while (table[idx] != 0 && table[idx] != id) {
+                    idx = (idx + 1) & mask;
+                }
+
+                if (table[idx] == 0) {
+                    table[idx] = id;
+                    size++;
+                }
+            }
+
+            return new EntityIdSet(table, size, containsZero);
+        }
+
+        /**
+         * Scrambles the bits of the given ID, since entity
+         * IDs are usually sequential.
+         *
+         * @param id the ID
+         * @return the hash of the ID
+         */
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Byte counters for one direction of a connection.
+     *
+     * <p>The fields are plain and only written by the
+     * connection's event loop, so other threads may read
+     * values that are slightly out of date.</p>
+     */
+    private static class BandwidthCounter {
+        // The length of the window used to compute the rate
+        private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+        // Bytes on the wire, including the length prefix and
+        // after compression
+        long wireBytes;
+        // Bytes of packet data before compression
+        long bytes;
+        // Length on the wire of the last frame, or -1 if
+        // no frame has been counted
+        int lastWireLength = -1;
+
+        private long windowStart = System.nanoTime();
+        private long windowStartWireBytes;
+        private long rate;
+
+        /**
+         * Counts a single frame.
+         *
+         * @param wireLength the length of the frame on the
+         * wire
+         * @param length the length of the packet data
+         * @param now the current {@link System#nanoTime()}
+         */
+        void record(int wireLength, int length, long now) {
+            this.wireBytes += wireLength;
+            this.bytes += length;
+            this.lastWireLength = wireLength;
+
+            long elapsed = now - this.windowStart;
+            if (elapsed >= RATE_WINDOW_NANOS) {
+                this.rate = (this.wireBytes - this.windowStartWireBytes) * RATE_WINDOW_NANOS / elapsed;
+                this.windowStart = now;
+                this.windowStartWireBytes = this.wireBytes;
+            }
+        }
+
+        /**
+         * Obtains the rate measured in the last completed
+         * window.
+         *
+         * @param now the current {@link System#nanoTime()}
+         * @return the rate in wire bytes per second
+         */
+        long getRate(long now) {
+            // No frames for over a window means there was
+            // no traffic since the rate was computed
+            if (now - this.windowStart >= 2 * RATE_WINDOW_NANOS) {
+                return 0;
+            }
+
+            return this.rate;
+        }
+    }
+
+    /**
+     * A snapshot of the bytes sent and received by a
+     * connection.
+     */
+    public static class BandwidthSnapshot {
+        private final ClientConnection connection;
+        private final long inboundWireBytes;
+        private final long inboundBytes;
+        private final long inboundRate;
+        private final long outboundWireBytes;
+        private final long outboundBytes;
+        private final long outboundRate;
+
+        /**
+         * Creates a new bandwidth snapshot.
+         *
+         * @param connection the connection
+         * @param inboundWireBytes inbound bytes on the wire
+         * @param inboundBytes inbound bytes before
+         * compression
+         * @param inboundRate inbound wire bytes per second
+         * @param outboundWireBytes outbound bytes on the wire
+         * @param outboundBytes outbound bytes before
+         * compression
+         * @param outboundRate outbound wire bytes per second
+         */
+        BandwidthSnapshot(ClientConnection connection,
+                          long inboundWireBytes, long inboundBytes, long inboundRate,
+                          long outboundWireBytes, long outboundBytes, long outboundRate) {
+            this.connection = connection;
+            this.inboundWireBytes = inboundWireBytes;
+            this.inboundBytes = inboundBytes;
+            this.inboundRate = inboundRate;
+            this.outboundWireBytes = outboundWireBytes;
+            this.outboundBytes = outboundBytes;
+            this.outboundRate = outboundRate;
+        }
+
+        /**
+         * Obtains the connection of this snapshot.
+         *
+         * @return the connection
+         */
+        public ClientConnection getConnection() {
+            return this.connection;
+        }
+
+        /**
+         * Obtains the total bytes received on the wire, after
+         * compression.
+         *
+         * @return the inbound wire bytes
+         */
+        public long getInboundWireBytes() {
+            return this.inboundWireBytes;
+        }
+
+        /**
+         * Obtains the total bytes of packet data received,
+         * before compression.
+         *
+         * @return the inbound packet bytes
+         */
+        public long getInboundBytes() {
+            return this.inboundBytes;
+        }
+
+        /**
+         * Obtains the rate of bytes received on the wire over
+         * the last second.
+         *
+         * @return the inbound wire bytes per second
+         */
+        public long getInboundRate() {
+            return this.inboundRate;
+        }
+
+        /**
+         * Obtains the total bytes sent on the wire, after
+         * compression.
+         *
+         * @return the outbound wire bytes
+         */
+        public long getOutboundWireBytes() {
+            return this.outboundWireBytes;
+        }
+
+        /**
+         * Obtains the total bytes of packet data sent, before
+         * compression.
+         *
+         * @return the outbound packet bytes
+         */
+        public long getOutboundBytes() {
+            return this.outboundBytes;
+        }
+
+        /**
+         * Obtains the rate of bytes sent on the wire over the
+         * last second.
+         *
+         * @return the outbound wire bytes per second
+         */
+        public long getOutboundRate() {
+            return this.outboundRate;
+        }
+    }
+
+    /**
+     * The phases of the protocol that a connection passes
+     * through, mirroring the NMS {@code EnumProtocol}.
+     */
+    public enum ProtocolPhase {
+        HANDSHAKING,
+        PLAY,
+        STATUS,
+        LOGIN;
+
+        // Phases indexed by the ordinal of the matching
+        // EnumProtocol constant
+        private static final ProtocolPhase[] BY_PROTOCOL_ORDINAL;
+
+        static {
+            Object[] protocols = ConnectionHandles.EP_CLS.getEnumConstants();
+            BY_PROTOCOL_ORDINAL = new ProtocolPhase[protocols.length];
+            for (Object protocol : protocols) {
+                Enum<?> constant = (Enum<?>) protocol;
+                BY_PROTOCOL_ORDINAL[constant.ordinal()] = valueOf(constant.name());
+            }
+        }
+
+        /**
+         * Obtains the phase matching the given NMS
+         * {@code EnumProtocol}.
+         *
+         * @param protocol the NMS protocol, or {@code null}
+         * if the channel has not been assigned one yet
+         * @return the matching phase
+         */
+        static ProtocolPhase of(Object protocol) {
+            if (protocol == null) {
+                return HANDSHAKING;
+            }
+
+            return BY_PROTOCOL_ORDINAL[((Enum<?>) protocol).ordinal()];
+        }
+    }
+
+    /**
+     * A typed key for a value stored in each
+     * {@link ClientConnection}.
+     *
+     * <p>Each key is allocated an integer slot once, which
+     * is used to index an array of values held by each
+     * connection, so obtaining a value does not perform any
+     * hashing or locking. Keys should therefore be created
+     * once and kept in a constant.</p>
+     *
+     * @param <T> the type of value associated with the key
+     */
+    public static final class ConnectionKey<T> {
+        // The next slot that has not been allocated
+        private static final AtomicInteger NEXT_SLOT = new AtomicInteger();
+
+        private final String name;
+        private final int slot;
+
+        /**
+         * Creates a new key and allocates its slot.
+         *
+         * @param name the name of the key, used only for
+         * debugging
+         */
+        public ConnectionKey(String name) {
+            this.name = name;
+            this.slot = NEXT_SLOT.getAndIncrement();
+        }
+
+        @Override
+        public String toString() {
+            return "ConnectionKey{" + this.name + "@" + this.slot + "}";
+        }
+    }
+
+    /**
+     * A copy-on-write view of an outbound packet given to
+     * the outbound rewrite handler.
+     *
+     * <p>Fields are indexed the same way as in
+     * {@link PacketFactory}. The packet is shallowly copied
+     * the first time a field is set, so the original
+     * instance, which may be shared with other connections,
+     * is never modified. Values that are themselves mutable,
+     * such as lists, are shared with the original and should
+     * be replaced rather than modified.</p>
+     *
+     * <p>Instances are reused for the next packet sent to
+     * the same connection, so they should not be kept once
+     * the rewrite handler returns.</p>
+     */
+    public static class PacketRewrite {
+        private Object original;
+        private Object packet;
+        private PacketFactory factory;
+        private boolean isCancelled;
+
+        /**
+         * Creates a new rewrite, which is given a packet
+         * using {@link #reset(Object)}.
+         */
+        PacketRewrite() {
+        }
+
+        /**
+         * Starts the rewrite of the given packet.
+         *
+         * @param original the packet being sent, or
+         * {@code null} to release the previous packet
+         */
+        void reset(Object original) {
+            if (this.factory != null && (original == null || this.factory.packetCls != original.getClass())) {
+                this.factory = null;
+            }
+
+            this.original = original;
+            this.packet = original;
+            this.isCancelled = false;
+        }
+
+        /**
+         * Obtains the class of the packet being rewritten.
+         *
+         * @return the packet class
+         */
+        public Class<?> getPacketClass() {
+            return this.original.getClass();
+        }
+
+        /**
+         * Obtains the current packet, which is the original
+         * packet unless a field has been set. This should not
+         * be modified directly.
+         *
+         * @return the current packet
+         */
+        public Object getPacket() {
+            return this.packet;
+        }
+
+        /**
+         * Determines whether the packet has been copied
+         * because a field was set.
+         *
+         * @return {@code true} if the packet was copied
+         */
+        public boolean isCopied() {
+            return this.packet != this.original;
+        }
+
+        /**
+         * Obtains the value of the field with the given index.
+         *
+         * @param index the index of the field
+         * @return the value of the field
+         */
+        public Object get(int index) {
+            return this.getFactory().get(this.packet, index);
+        }
+
+        /**
+         * Sets the field with the given index in the copy of
+         * the packet, copying it if it has not been already.
+         *
+         * @param index the index of the field
+         * @param value the value to set
+         * @return this rewrite
+         */
+        public PacketRewrite set(int index, Object value) {
+            PacketFactory factory = this.getFactory();
+            if (this.packet == this.original) {
+                this.packet = factory.shallowCopy(this.original);
+            }
+
+            factory.set(this.packet, index, value);
+            return this;
+        }
+
+        /**
+         * Prevents the packet from being sent to this
+         * connection.
+         */
+        public void cancel() {
+            this.isCancelled = true;
+        }
+
+        /**
+         * Obtains the packet that should be sent.
+         *
+         * @return the packet, or {@code null} if cancelled
+         */
+        Object getResult() {
+            return this.isCancelled ? null : this.packet;
+        }
+
+        /**
+         * Obtains the factory of the packet class, resolving
+         * it the first time it is needed.
+         *
+         * @return the packet factory
+         */
+        private PacketFactory getFactory() {
+            if (this.factory == null) {
+                this.factory = PacketFactory.of(this.original.getClass());
+            }
+
+            return this.factory;
+        }
+    }
+
+    /**
+     * A factory for NMS packet objects that resolves the
+     * packet constructor and fields exactly once into
+     * {@link MethodHandle}s so that constructing a packet
+     * does not need to perform any reflective lookups.
+     *
+     * <p>Fields are indexed in the order that they are
+     * declared in the packet class, ignoring static fields.
+     * Superclass fields are not included.</p>
+     *
+     * <p>Packets without a no-arg constructor are built
+     * with a constructor whose parameter types are those
+     * of the fields, in any order. Parameters are matched
+     * to fields by type, so parameters of the same type are
+     * assumed to be in the same order as their fields.</p>
+     *
+     * <p>Factories are cached per packet class and are
+     * thread-safe. The {@link Builder}s that they create are
+     * not.</p>
+     *
+     * <p>Example:
+     * {@code factory.create().set(0, id).setDouble(1, x).build()}
+     * </p>
+     */
+    public static class PacketFactory {
+        // Cache of factories for each packet class
+        private static final Map<Class<?>, PacketFactory> FACTORY_CACHE = new ConcurrentHashMap<>();
+
+        // (Object, Object)void
+        private static final MethodType GENERIC_SETTER_TYPE =
+                MethodType.methodType(void.class, Object.class, Object.class);
+        // (Object)Object
+        private static final MethodType GENERIC_GETTER_TYPE =
+                MethodType.methodType(Object.class, Object.class);
+        // (Object[], int, Object)void
+        private static final MethodHandle ARRAY_SETTER = MethodHandles.arrayElementSetter(Object[].class);
+
+        // The value that each primitive field has before it
+        // is set
+        private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+        static {
+            PRIMITIVE_DEFAULTS.put(boolean.class, false);
+            PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+            PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+            PRIMITIVE_DEFAULTS.put(char.class, (char) 0);
+            PRIMITIVE_DEFAULTS.put(int.class, 0);
+            PRIMITIVE_DEFAULTS.put(long.class, 0L);
+            PRIMITIVE_DEFAULTS.put(float.class, 0F);
+            PRIMITIVE_DEFAULTS.put(double.class, 0D);
+        }
+
+        private final Class<?> packetCls;
+        private final String[] fieldNames;
+        private final Class<?>[] fieldTypes;
+
+        // Object PacketClass#<init>(), or null if the full
+        // constructor must be used instead
+        private final MethodHandle noArgCtor;
+        // Object PacketClass#<init>(Object[]), spread over each
+        // of the fields, or null if the no-arg constructor is
+        // used instead
+        private final MethodHandle fullCtor;
+
+        // Setters for each field, the generic setter accepts
+        // any boxed value whereas the typed setter accepts the
+        // exact type of the field
+        private final MethodHandle[] genericSetters;
+        private final MethodHandle[] typedSetters;
+        // The same setters for the arguments buffered for the
+        // full constructor, or null if the no-arg constructor
+        // is used instead
+        private final MethodHandle[] genericArgSetters;
+        private final MethodHandle[] typedArgSetters;
+        // Getters for each field, which box primitives
+        private final MethodHandle[] genericGetters;
+        // (Object dst, Object src)void copiers for every instance
+        // field, including those declared by superclasses
+        private final MethodHandle[] fieldCopiers;
+
+        // Per-thread reusable packet templates
+        private final ThreadLocal<Builder> templates;
+
+        /**
+         * Resolves the constructor and the fields of the given
+         * packet class.
+         *
+         * @param packetCls the packet class to resolve
+         * @throws RuntimeException if neither a no-arg
+         * constructor nor a constructor accepting every field
+         * could be found
+         */
+        private PacketFactory(Class<?> packetCls) {
+            this.packetCls = packetCls;
+
+            List<Field> fields = new ArrayList<>();
+            for (Field field : packetCls.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+
+            int fieldCount = fields.size();
+            this.fieldNames = new String[fieldCount];
+            this.fieldTypes = new Class<?>[fieldCount];
+            this.genericSetters = new MethodHandle[fieldCount];
+            this.typedSetters = new MethodHandle[fieldCount];
+            this.genericGetters = new MethodHandle[fieldCount];
+
+            // Superclass fields are only copied, not indexed
+            List<Field> copiedFields = new ArrayList<>(fields);
+            for (Class<?> cls = packetCls.getSuperclass(); cls != null && cls != Object.class;
+                 cls = cls.getSuperclass()) {
+                for (Field field : cls.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        copiedFields.add(field);
+                    }
+                }
+            }
+            this.fieldCopiers = new MethodHandle[copiedFields.size()];
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            try {
+                for (int i = 0; i < fieldCount; i++) {
+                    Field field = fields.get(i);
+                    Class<?> fieldType = field.getType();
+                    MethodHandle setter = lookup.unreflectSetter(field);
+
+                    this.fieldNames[i] = field.getName();
+                    this.fieldTypes[i] = fieldType;
+                    this.genericSetters[i] = setter.asType(GENERIC_SETTER_TYPE);
+                    this.genericGetters[i] = lookup.unreflectGetter(field).asType(GENERIC_GETTER_TYPE);
+                    this.typedSetters[i] = setter.asType(
+                            MethodType.methodType(void.class, Object.class, fieldType));
+                }
+
+                // Pipe each getter into its setter so that copying
+                // does not box primitives
+                for (int i = 0; i < copiedFields.size(); i++) {
+                    Field field = copiedFields.get(i);
+                    Class<?> fieldType = field.getType();
+                    MethodHandle setter = lookup.unreflectSetter(field)
+                            .asType(MethodType.methodType(void.class, Object.class, fieldType));
+                    MethodHandle getter = lookup.unreflectGetter(field)
+                            .asType(MethodType.methodType(fieldType, Object.class));
+                    this.fieldCopiers[i] = MethodHandles.filterArguments(setter, 1, getter);
+                }
+
+                Constructor<?> noArgCtor = null;
+                Constructor<?> fullCtor = null;
+                for (Constructor<?> ctor : packetCls.getDeclaredConstructors()) {
+                    Class<?>[] params = ctor.getParameterTypes();
+                    if (params.length == 0) {
+                        noArgCtor = ctor;
+                        break;
+                    }
+
+                    if (fullCtor == null && matchParameters(params, this.fieldTypes) != null) {
+                        fullCtor = ctor;
+                    }
+                }
+
+                if (noArgCtor != null) {
+                    noArgCtor.setAccessible(true);
+                    this.noArgCtor = lookup.unreflectConstructor(noArgCtor)
+                            .asType(MethodType.methodType(Object.class));
+                    this.fullCtor = null;
+                    this.genericArgSetters = null;
+                    this.typedArgSetters = null;
+                } else if (fullCtor != null) {
+                    fullCtor.setAccessible(true);
+                    this.noArgCtor = null;
+
+                    // Take the arguments in the order of the fields
+                    int[] reorder = matchParameters(fullCtor.getParameterTypes(), this.fieldTypes);
+                    this.fullCtor = MethodHandles.permuteArguments(lookup.unreflectConstructor(fullCtor),
+                            MethodType.methodType(packetCls, this.fieldTypes), reorder)
+                            .asSpreader(Object[].class, fieldCount)
+                            .asType(MethodType.methodType(Object.class, Object[].class));
+
+                    this.genericArgSetters = new MethodHandle[fieldCount];
+                    this.typedArgSetters = new MethodHandle[fieldCount];
+                    for (int i = 0; i < fieldCount; i++) {
+                        MethodHandle argSetter = MethodHandles.insertArguments(ARRAY_SETTER, 1, i);
+                        this.genericArgSetters[i] = argSetter.asType(GENERIC_SETTER_TYPE);
+                        this.typedArgSetters[i] = argSetter.asType(
+                                MethodType.methodType(void.class, Object.class, this.fieldTypes[i]));
+                    }
+                } else {
+                    throw new RuntimeException("No usable constructor for " + packetCls.getName());
+                }
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+
+            this.templates = ThreadLocal.withInitial(() -> new Builder(this, true));
+        }
+
+        /**
+         * Matches each constructor parameter to a field of
+         * the same type, taking the fields of each type in
+         * the order that they are declared.
+         *
+         * @param params the parameter types of the
+         * constructor
+         * @param fieldTypes the types of the fields
+         * @return the index of the field matching each
+         * parameter, or {@code null} if the parameter types
+         * are not those of the fields
+         */
+        private static int[] matchParameters(Class<?>[] params, Class<?>[] fieldTypes) {
+            if (params.length != fieldTypes.length) {
+                return null;
+            }
+
+            int[] reorder = new int[params.length];
+            boolean[] isMatched = new boolean[fieldTypes.length];
+            for (int i = 0; i < params.length; i++) {
+                int match = -1;
+                for (int j = 0; j < fieldTypes.length; j++) {
+                    if (!isMatched[j] && fieldTypes[j] == params[i]) {
+                        match = j;
+                        break;
+                    }
+                }
+
+                if (match < 0) {
+                    return null;
+                }
+
+                isMatched[match] = true;
+                reorder[i] = match;
+            }
+
+            return reorder;
+        }
+
+        /**
+         * Obtains the packet factory for the NMS packet with
+         * the given simple name, such as
+         * {@code "PacketPlayOutEntityDestroy"}.
+         *
+         * @param nmsPacketName the name of the packet class in
+         * the versioned NMS package
+         * @return the factory for that packet
+         */
+        public static PacketFactory of(String nmsPacketName) {
+            return of(lookupClass(NMS_PACKAGE + nmsPacketName));
+        }
+
+        /**
+         * Obtains the packet factory for the given packet
+         * class, resolving it if this is the first time it has
+         * been requested.
+         *
+         * @param packetCls the packet class
+         * @return the factory for that packet
+         */
+        public static PacketFactory of(Class<?> packetCls) {
+            return FACTORY_CACHE.computeIfAbsent(packetCls, PacketFactory::new);
+        }
+
+        /**
+         * Creates a builder for a new packet instance.
+         *
+         * @return a new packet builder
+         */
+        public Builder create() {
+            return new Builder(this, false);
+        }
+
+        /**
+         * Obtains the builder wrapping the packet template
+         * held by the current thread.
+         *
+         * <p>The template is one single packet instance that
+         * is reused every time this method is called on the
+         * same thread. Fields that are not set retain their
+         * previous values. This is only safe for packets that
+         * are no longer referenced once they have been
+         * written, so the template should not be modified
+         * again until the previous write completes, and it
+         * should never be used with packets that the server
+         * or another handler retains.</p>
+         *
+         * <p>Templates are only supported for packets with a
+         * no-arg constructor.</p>
+         *
+         * @return the builder for the current thread's
+         * template
+         * @throws UnsupportedOperationException if the packet
+         * has no no-arg constructor
+         */
+        public Builder template() {
+            if (this.noArgCtor == null) {
+                throw new UnsupportedOperationException(this.packetCls.getName() + " has no no-arg constructor");
+            }
+
+            return this.templates.get();
+        }
+
+        /**
+         * Creates a shallow copy of the given packet, which
+         * shares the values of each of its fields, including
+         * those declared by its superclasses.
+         *
+         * @param packet the packet to copy, which must be an
+         * instance of exactly this factory's packet class
+         * @return the copy
+         */
+        public Object shallowCopy(Object packet) {
+            try {
+                Object copy;
+                if (this.noArgCtor == null) {
+                    Object[] ctorArgs = new Object[this.genericGetters.length];
+                    for (int i = 0; i < ctorArgs.length; i++) {
+                        ctorArgs[i] = (Object) this.genericGetters[i].invokeExact(packet);
+                    }
+
+                    // The constructor does not set the fields of
+                    // the superclasses, which are copied below
+                    copy = (Object) this.fullCtor.invokeExact(ctorArgs);
+                } else {
+                    copy = (Object) this.noArgCtor.invokeExact();
+                }
+
+                for (MethodHandle copier : this.fieldCopiers) {
+                    copier.invokeExact(copy, packet);
+                }
+
+                return copy;
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        /**
+         * Obtains the value of the field with the given index
+         * from the given packet, boxing it if necessary.
+         *
+         * @param packet the packet
+         * @param index the index of the field
+         * @return the value of the field
+         */
+        public Object get(Object packet, int index) {
+            try {
+                return (Object) this.genericGetters[index].invokeExact(packet);
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        /**
+         * Sets the field with the given index of the given
+         * packet, unboxing the value if necessary.
+         *
+         * <p>This modifies the packet itself, which may be
+         * shared with other connections.</p>
+         *
+         * @param packet the packet
+         * @param index the index of the field
+         * @param value the value to set
+         */
+        public void set(Object packet, int index, Object value) {
+            try {
+                this.genericSetters[index].invokeExact(packet, value);
+            } catch (Throwable t) {
+                throw new RuntimeException(t);
+            }
+        }
+
+        /**
+         * Obtains the packet class constructed by this
+         * factory.
+         *
+         * @return the packet class
+         */
+        public Class<?> getPacketClass() {
+            return this.packetCls;
+        }
+
+        /**
+         * Obtains the number of fields that can be set by
+         * this factory.
+         *
+         * @return the number of instance fields
+         */
+        public int getFieldCount() {
+            return this.fieldNames.length;
+        }
+
+        /**
+         * Obtains the index of the field with the given name
+         * so that it can be cached by the caller.
+         *
+         * @param fieldName the name of the field
+         * @return the index of the field, or {@code -1} if
+         * there is no such field
+         */
+        public int indexOf(String fieldName) {
+            for (int i = 0; i < this.fieldNames.length; i++) {
+                if (this.fieldNames[i].equals(fieldName)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Builds a single packet instance using the setters
+         * resolved by its {@link PacketFactory}.
+         *
+         * <p>If the packet has a no-arg constructor, each
+         * setter writes directly to the packet. Otherwise, the
+         * values are buffered and passed to the full
+         * constructor when {@link #build()} is called.</p>
+         */
+        public static class Builder {
+            private final PacketFactory factory;
+            private final boolean isTemplate;
+
+            private final Object[] ctorArgs;
+
+            // The object written by the setters, which is
+            // either the packet or the constructor arguments,
+            // and the setters for each of its fields
+            private Object target;
+            private final MethodHandle[] genericSetters;
+            private final MethodHandle[] typedSetters;
+
+            /**
+             * Creates a new builder for the given factory.
+             *
+             * @param factory the factory resolving the packet
+             * @param isTemplate {@code true} if the builder is
+             * reused
+             */
+            private Builder(PacketFactory factory, boolean isTemplate) {
+                this.factory = factory;
+                this.isTemplate = isTemplate;
+
+                if (factory.noArgCtor != null) {
+                    this.ctorArgs = null;
+                    this.target = newPacket(factory.noArgCtor);
+                    this.genericSetters = factory.genericSetters;
+                    this.typedSetters = factory.typedSetters;
+                } else {
+                    this.ctorArgs = new Object[factory.getFieldCount()];
+                    for (int i = 0; i < this.ctorArgs.length; i++) {
+                        this.ctorArgs[i] = PRIMITIVE_DEFAULTS.get(factory.fieldTypes[i]);
+                    }
+
+                    this.target = this.ctorArgs;
+                    this.genericSetters = factory.genericArgSetters;
+                    this.typedSetters = factory.typedArgSetters;
+                }
+            }
+
+            /**
+             * Sets the field with the given index to the given
+             * value, which is unboxed if necessary.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder set(int index, Object value) {
+                try {
+                    this.genericSetters[index].invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code int} field with the given index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setInt(int index, int value) {
+                MethodHandle setter = this.typedSetter(index, int.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code long} field with the given index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setLong(int index, long value) {
+                MethodHandle setter = this.typedSetter(index, long.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code double} field with the given
+             * index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setDouble(int index, double value) {
+                MethodHandle setter = this.typedSetter(index, double.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code float} field with the given
+             * index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setFloat(int index, float value) {
+                MethodHandle setter = this.typedSetter(index, float.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code short} field with the given
+             * index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setShort(int index, short value) {
+                MethodHandle setter = this.typedSetter(index, short.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code byte} field with the given index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setByte(int index, byte value) {
+                MethodHandle setter = this.typedSetter(index, byte.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Sets the {@code boolean} field with the given
+             * index.
+             *
+             * @param index the index of the field
+             * @param value the value to set
+             * @return this builder
+             */
+            public Builder setBoolean(int index, boolean value) {
+                MethodHandle setter = this.typedSetter(index, boolean.class);
+                try {
+                    setter.invokeExact(this.target, value);
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+                return this;
+            }
+
+            /**
+             * Obtains the typed setter for the given field,
+             * checking that the field is of the expected
+             * primitive type.
+             *
+             * @param index the index of the field
+             * @param type the expected primitive type
+             * @return the typed setter
+             * @throws IllegalArgumentException if the field is
+             * not of the expected type
+             */
+            private MethodHandle typedSetter(int index, Class<?> type) {
+                if (this.factory.fieldTypes[index] != type) {
+                    throw new IllegalArgumentException("Field " + this.factory.fieldNames[index] +
+                            " is of type " + this.factory.fieldTypes[index].getName() + ", not " + type.getName());
+                }
+
+                return this.typedSetters[index];
+            }
+
+            /**
+             * Obtains the packet that was built.
+             *
+             * <p>Builders created by
+             * {@link PacketFactory#create()} should not be
+             * used after this method is called.</p>
+             *
+             * @return the NMS packet instance
+             */
+            public Object build() {
+                if (this.ctorArgs != null) {
+                    try {
+                        return (Object) this.factory.fullCtor.invokeExact(this.ctorArgs.clone());
+                    } catch (Throwable t) {
+                        throw new RuntimeException(t);
+                    }
+                }
+
+                Object packet = this.target;
+                if (!this.isTemplate) {
+                    this.target = null;
+                }
+
+                return packet;
+            }
+
+            /**
+             * Invokes the given no-arg constructor handle.
+             *
+             * @param ctor the constructor handle
+             * @return the new packet instance
+             */
+            private static Object newPacket(MethodHandle ctor) {
+                try {
+                    return (Object) ctor.invokeExact();
+                } catch (Throwable t) {
+                    throw new RuntimeException(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A cache of the server list status response which is
+     * periodically rebuilt off of the main thread and
+     * written directly to channels requesting the server
+     * status.
+     *
+     * <p>The response is pre-encoded into a single
+     * {@code ByteBuf} which is duplicated for each channel,
+     * so answering a status request does not encode or
+     * serialize anything. Ping requests are answered
+     * immediately and the channel is then closed.</p>
+     *
+     * <p>Note that the server never sees requests answered
+     * using this cache, so {@code ServerListPingEvent} is
+     * not called for them. Use a custom JSON supplier to
+     * customize the response instead.</p>
+     */
+    public static class StatusCache {
+        // nms.ServerPing MinecraftServer#getServerPing()
+        private static final Method MS_GET_SERVER_PING_ME = lookupMethod(ConnectionHandles.MS_CLS, "getServerPing");
+        // nms.PacketStatusOutServerInfo
+        private static final Class<?> PSOSI_CLS = lookupClass(NMS_PACKAGE + "PacketStatusOutServerInfo");
+        // com.google.gson.Gson
+        private static final Class<?> GSON_CLS = lookupClass("com.google.gson.Gson");
+        // Gson PacketStatusOutServerInfo#a, found by type since its name is
+        // obfuscated
+        private static final Object PSOSI_GSON_INST = lookupStaticValue(PSOSI_CLS, GSON_CLS);
+        // String Gson#toJson(Object)
+        private static final Method GSON_TO_JSON_ME = lookupMethod(GSON_CLS, "toJson", Object.class);
+
+        // nms.PacketStatusInStart
+        private static final Class<?> PSIS_CLS = lookupClass(NMS_PACKAGE + "PacketStatusInStart");
+        // nms.PacketStatusInPing
+        private static final Class<?> PSIP_CLS = lookupClass(NMS_PACKAGE + "PacketStatusInPing");
+        // long PacketStatusInPing#a
+        private static final Field PSIP_PAYLOAD = lookupField(PSIP_CLS, "a");
+
+        // Packet IDs for the status response and pong packets
+        private static final int STATUS_RESPONSE_ID = 0x00;
+        private static final int PONG_ID = 0x01;
+
+        // ByteBuf ByteBuf#writeLong(long)
+        private static final Method BB_WRITE_LONG_ME = lookupMethod(SendingHandles.BYTE_BUF_CLS, "writeLong",
+                long.class);
+
+        // ByteBufAllocator ChannelHandlerContext#alloc()
+        private static final Method CHC_ALLOC_ME = lookupMethod(CHC_CLS, "alloc");
+        // ByteBuf ByteBufAllocator#buffer(int)
+        private static final Method BBA_BUFFER_ME = lookupMethod(lookupClass("io.netty.buffer.ByteBufAllocator"),
+                "buffer", int.class);
+        // ChannelFutureListener ChannelFutureListener#CLOSE
+        private static final Object CFL_CLOSE_INST = getFieldValue(
+                lookupField(lookupClass(NETTY_PACKAGE + "ChannelFutureListener"), "CLOSE"), null);
+
+        private final long refreshMillis;
+        private final Supplier<String> jsonSupplier;
+
+        // The currently served response and the response it
+        // replaced, which is only released on the following
+        // refresh in case an event loop is still duplicating it
+        private volatile Object response;
+        private Object retiredResponse;
+
+        private BukkitTask refreshTask;
+
+        /**
+         * Creates a new status cache that serves the status
+         * built by the server.
+         *
+         * @param refreshMillis the time in milliseconds
+         * between each rebuild of the response
+         */
+        public StatusCache(long refreshMillis) {
+            this(refreshMillis, StatusCache::serializeServerPing);
+        }
+
+        /**
+         * Creates a new status cache that serves the status
+         * JSON returned by the given supplier.
+         *
+         * <p>The supplier is called off of the main thread.
+         * </p>
+         *
+         * @param refreshMillis the time in milliseconds
+         * between each rebuild of the response
+         * @param jsonSupplier the supplier of the status
+         * JSON string
+         */
+        public StatusCache(long refreshMillis, Supplier<String> jsonSupplier) {
+            this.refreshMillis = refreshMillis;
+            this.jsonSupplier = jsonSupplier;
+        }
+
+        /**
+         * Serializes the status that the server would send
+         * to clients requesting the status.
+         *
+         * @return the status JSON
+         */
+        private static String serializeServerPing() {
+            Object serverPing = invokeMethod(MS_GET_SERVER_PING_ME, ConnectionHandles.MINECRAFT_SERVER_INST);
+            return invokeMethod(GSON_TO_JSON_ME, PSOSI_GSON_INST, serverPing);
+        }
+
+        /**
+         * Starts rebuilding the response asynchronously.
+         *
+         * @param plugin the plugin to use to schedule the
+         * refresh task
+         */
+        synchronized void start(Plugin plugin) {
+            if (this.refreshTask != null) {
+                return;
+            }
+
+            long periodTicks = Math.max(1, this.refreshMillis / 50);
+            this.refreshTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin,
+                    this::refresh, 0, periodTicks);
+        }
+
+        /**
+         * Stops rebuilding the response and releases the
+         * cached response buffers.
+         */
+        synchronized void stop() {
+            if (this.refreshTask == null) {
+                return;
+            }
+
+            this.refreshTask.cancel();
+            this.refreshTask = null;
+
+            Object response = this.response;
+            this.response = null;
+            this.releaseRetired();
+            this.retiredResponse = response;
+        }
+
+        /**
+         * Rebuilds the status response.
+         */
+        private synchronized void refresh() {
+            if (this.refreshTask == null) {
+                return;
+            }
+
+            byte[] json = this.jsonSupplier.get().getBytes(StandardCharsets.UTF_8);
+
+            // Packet ID, string length and string content;
+            // the length prefix is added by the prepender
+            byte[] encoded = new byte[varIntSize(STATUS_RESPONSE_ID) + varIntSize(json.length) + json.length];
+            int idx = writeVarInt(encoded, 0, STATUS_RESPONSE_ID);
+            idx = writeVarInt(encoded, idx, json.length);
+            System.arraycopy(json, 0, encoded, idx, json.length);
+
+            this.releaseRetired();
+            this.retiredResponse = this.response;
+            this.response = invokeMethod(SendingHandles.UNPOOLED_WRAPPED_BUFFER_ME, null, (Object) encoded);
+        }
+
+        /**
+         * Releases the response that was retired by the
+         * previous refresh, if any.
+         */
+        private void releaseRetired() {
+            Object retired = this.retiredResponse;
+            if (retired != null) {
+                invokeMethod(SendingHandles.RC_RELEASE_ME, retired);
+                this.retiredResponse = null;
+            }
+        }
+
+        /**
+         * Answers the given packet using the cache, if it is
+         * a status or ping request and a response has been
+         * built.
+         *
+         * @param ctx the context of the inbound interceptor
+         * @param packet the inbound packet
+         * @return {@code true} if the packet was answered and
+         * should not be passed down the pipeline
+         */
+        boolean tryRespond(Object ctx, Object packet) {
+            Class<?> packetCls = packet.getClass();
+            if (packetCls != PSIS_CLS && packetCls != PSIP_CLS) {
+                return false;
+            }
+
+            Object response = this.response;
+            if (response == null) {
+                return false;
+            }
+
+            if (packetCls == PSIS_CLS) {
+                invokeMethod(COI_WRITE_AND_FLUSH_ME, ctx,
+                        invokeMethod(SendingHandles.BB_RETAINED_DUPLICATE_ME, response));
+            } else {
+                long payload = getFieldValue(PSIP_PAYLOAD, packet);
+
+                Object allocator = invokeMethod(CHC_ALLOC_ME, ctx);
+                Object pong = invokeMethod(BBA_BUFFER_ME, allocator, 9);
+                invokeMethod(SendingHandles.BB_WRITE_BYTE_ME, pong, PONG_ID);
+                invokeMethod(BB_WRITE_LONG_ME, pong, payload);
+
+                Object future = invokeMethod(COI_WRITE_AND_FLUSH_ME, ctx, pong);
+                invokeMethod(CF_ADD_LISTENER_ME, future, CFL_CLOSE_INST);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Admission control for new connections which limits
+     * the rate at which connections are accepted from a
+     * single address, from a single subnet and from every
+     * client combined.
+     *
+     * <p>Rates are measured using sliding window counters
+     * which are stored in fixed-size tables, so a connection
+     * storm from many different addresses cannot grow the
+     * amount of memory used. Entries are evicted once they
+     * have not been updated for two windows, or when every
+     * entry an address may use is taken, in which case the
+     * entry with the lowest count is replaced. Each counter is
+     * packed into a single {@code long} and updated using
+     * CAS, so this class is lock-free and thread-safe.</p>
+     *
+     * <p>Subnets are /24 for IPv4 addresses and /64 for
+     * IPv6 addresses. Addresses that hash to the same
+     * entry share a counter, which may only make the
+     * throttle stricter.</p>
+     */
+    public static class ConnectionThrottle {
+        // Unsafe Channel#unsafe()
+        private static final Method CH_UNSAFE_ME = lookupMethod(CH_CLS, "unsafe");
+        // void Channel.Unsafe#closeForcibly()
+        private static final Method CH_UNSAFE_CLOSE_FORCIBLY_ME = lookupMethod(
+                lookupClass(NETTY_PACKAGE + "Channel$Unsafe"), "closeForcibly");
+
+        // The number of entries in each table, must be a
+        // power of 2
+        private static final int TABLE_SIZE = 4096;
+        // The number of entries probed before giving up on
+        // finding an entry for an address
+        private static final int MAX_PROBES = 8;
+
+        // Layout of an entry:
+        // | fingerprint (12) | window (24) | current (14) | previous (14) |
+        private static final int FINGERPRINT_SHIFT = 52;
+        private static final int WINDOW_SHIFT = 28;
+        private static final int CURRENT_SHIFT = 14;
+        private static final long COUNT_MASK = 0x3FFFL;
+        private static final long WINDOW_MASK = 0xFFFFFFL;
+        private static final long FINGERPRINT_MASK = 0xFFFL;
+        // Counts saturate at COUNT_MASK, so a limit must be
+        // below it to ever be exceeded
+        private static final int MAX_LIMIT = (int) COUNT_MASK - 1;
+
+        private final long windowNanos;
+        private final int maxPerAddress;
+        private final int maxPerSubnet;
+        private final int maxGlobal;
+
+        private final AtomicLongArray addressTable = new AtomicLongArray(TABLE_SIZE);
+        private final AtomicLongArray subnetTable = new AtomicLongArray(TABLE_SIZE);
+        private final AtomicLong globalEntry = new AtomicLong();
+
+        private final LongAdder rejectedCount = new LongAdder();
+
+        /**
+         * Creates a new connection throttle.
+         *
+         * @param windowMillis the length of the sliding
+         * window, in milliseconds
+         * @param maxPerAddress the maximum number of
+         * connection attempts from one address per window
+         * @param maxPerSubnet the maximum number of
+         * connection attempts from one subnet per window
+         * @param maxGlobal the maximum number of connections
+         * accepted from all clients per window
+         * @throws IllegalArgumentException if the window or
+         * any of the limits is not positive, or if a limit is
+         * greater than {@value #MAX_LIMIT}
+         */
+        public ConnectionThrottle(long windowMillis, int maxPerAddress, int maxPerSubnet, int maxGlobal) {
+            if (windowMillis <= 0) {
+                throw new IllegalArgumentException("Window must be positive: " + windowMillis);
+            }
+
+            checkLimit("maxPerAddress", maxPerAddress);
+            checkLimit("maxPerSubnet", maxPerSubnet);
+            checkLimit("maxGlobal", maxGlobal);
+
+            this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+            this.maxPerAddress = maxPerAddress;
+            this.maxPerSubnet = maxPerSubnet;
+            this.maxGlobal = maxGlobal;
+        }
+
+        /**
+         * Checks that the given limit can be counted by an
+         * entry.
+         *
+         * @param name the name of the limit
+         * @param limit the limit
+         * @throws IllegalArgumentException if the limit is out
+         * of range
+         */
+        private static void checkLimit(String name, int limit) {
+            if (limit <= 0 || limit > MAX_LIMIT) {
+                throw new IllegalArgumentException(name + " must be between 1 and " + MAX_LIMIT + ": " + limit);
+            }
+        }
+
+        /**
+         * Obtains the number of connections rejected by this
+         * throttle.
+         *
+         * @return the number of rejected connections
+         */
+        public long getRejectedCount() {
+            return this.rejectedCount.sum();
+        }
+
+        /**
+         * Determines whether a new connection from the given
+         * address should be accepted, counting it towards the
+         * limits.
+         *
+         * <p>Attempts count towards the address and subnet
+         * limits even if they are rejected. Only accepted
+         * connections count towards the global limit.</p>
+         *
+         * @param address the address of the client
+         * @return {@code true} if the connection is admitted
+         */
+        boolean tryAdmit(InetAddress address) {
+            long now = System.nanoTime();
+            long window = now / this.windowNanos;
+            // How far into the current window as a fraction
+            // of 1024, used to weigh the previous window
+            long progress = ((now % this.windowNanos) << 10) / this.windowNanos;
+
+            long addressKey;
+            long subnetKey;
+            if (address instanceof Inet4Address) {
+                int bits = address.hashCode();
+                addressKey = bits;
+                subnetKey = bits >>> 8;
+            } else {
+                byte[] bytes = address.getAddress();
+                long high = 0;
+                long low = 0;
+                for (int i = 0; i < 8; i++) {
+                    high = (high << 8) | (bytes[i] & 0xFF);
+                    low = (low << 8) | (bytes[i + 8] & 0xFF);
+                }
+
+                addressKey = high ^ mix(low);
+                subnetKey = ~high;
+            }
+
+            // Both the address and the subnet count the attempt,
+            // even if the other rejects it
+            boolean withinAddress =
+                    this.countAttempt(this.addressTable, addressKey, this.maxPerAddress, window, progress);
+            boolean withinSubnet =
+                    this.countAttempt(this.subnetTable, subnetKey, this.maxPerSubnet, window, progress);
+            boolean admitted = withinAddress && withinSubnet &&
+                    this.countAccepted(this.globalEntry, this.maxGlobal, window, progress);
+            if (!admitted) {
+                this.rejectedCount.increment();
+            }
+
+            return admitted;
+        }
+
+        /**
+         * Counts an attempt made by the given key in the
+         * given table.
+         *
+         * @param table the table in which to count the
+         * attempt
+         * @param key the address or subnet key
+         * @param limit the limit for the key
+         * @param window the current window index
+         * @param progress the progress into the current
+         * window out of 1024
+         * @return {@code true} if the key is within the limit
+         * after counting the attempt
+         */
+        private boolean countAttempt(AtomicLongArray table, long key, int limit, long window, long progress) {
+            long hash = mix(key);
+            long fingerprint = (hash >>> 40) & FINGERPRINT_MASK;
+            int mask = TABLE_SIZE - 1;
+
+            while (true) {
+                int victimIdx = -1;
+                long victim = 0;
+                long victimCount = Long.MAX_VALUE;
+                for (int probe = 0; probe < MAX_PROBES; probe++) {
+                    int idx = (int) (hash + probe) & mask;
+                    while (true) {
+                        long entry = table.get(idx);
+                        boolean isStale = entry == 0 || windowsElapsed(entry, window) >= 2;
+                        if (!isStale && (entry >>> FINGERPRINT_SHIFT) != fingerprint) {
+                            // Occupied by another key, remember the
+                            // least active one in case every entry is
+                            long count = estimate(advance(entry, window), progress);
+                            if (count < victimCount) {
+                                victimIdx = idx;
+                                victim = entry;
+                                victimCount = count;
+                            }
+
+                            break;
+                        }
+
+                        long updated = advance(isStale ? fingerprint << FINGERPRINT_SHIFT : entry, window);
+                        updated = increment(updated);
+                        if (table.compareAndSet(idx, entry, updated)) {
+                            return estimate(updated, progress) <= limit;
+                        }
+                    }
+                }
+
+                // The table is saturated around this key, so
+                // evict the least active key rather than letting
+                // the attempt through uncounted
+                long updated = increment(advance(fingerprint << FINGERPRINT_SHIFT, window));
+                if (table.compareAndSet(victimIdx, victim, updated)) {
+                    return estimate(updated, progress) <= limit;
+                }
+            }
+        }
+
+        /**
+         * Counts an accepted connection in the given entry
+         * if it is within the limit.
+         *
+         * @param entry the entry in which to count
+         * @param limit the limit for the entry
+         * @param window the current window index
+         * @param progress the progress into the current
+         * window out of 1024
+         * @return {@code true} if the connection was counted
+         */
+        private boolean countAccepted(AtomicLong entry, int limit, long window, long progress) {
+            while (true) {
+                long current = entry.get();
+                long advanced = advance(current, window);
+                if (estimate(advanced, progress) >= limit) {
+                    return false;
+                }
+
+                if (entry.compareAndSet(current, increment(advanced))) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Determines the number of windows that have elapsed
+         * since the entry was last updated.
+         *
+         * @param entry the entry
+         * @param window the current window index
+         * @return the number of elapsed windows, modulo
+         * 2<sup>24</sup>
+         */
+        private static long windowsElapsed(long entry, long window) {
+            return (window - (entry >>> WINDOW_SHIFT)) & WINDOW_MASK;
+        }
+
+        /**
+         * Moves the given entry into the current window,
+         * shifting or clearing its counts if necessary.
+         *
+         * @param entry the entry
+         * @param window the current window index
+         * @return the entry in the current window
+         */
+        private static long advance(long entry, long window) {
+            long elapsed = windowsElapsed(entry, window);
+            long fingerprintBits = entry & ~((1L << FINGERPRINT_SHIFT) - 1);
+            long windowBits = (window & WINDOW_MASK) << WINDOW_SHIFT;
+            if (elapsed == 0) {
+                return entry;
+            } else if (elapsed == 1) {
+                long current = (entry >>> CURRENT_SHIFT) & COUNT_MASK;
+                return fingerprintBits | windowBits | current;
+            } else {
+                return fingerprintBits | windowBits;
+            }
+        }
+
+        /**
+         * Increments the current count of the entry,
+         * saturating at the maximum count.
+         *
+         * @param entry the entry
+         * @return the incremented entry
+         */
+        private static long increment(long entry) {
+            long current = (entry >>> CURRENT_SHIFT) & COUNT_MASK;
+            if (current == COUNT_MASK) {
+                return entry;
+            }
+
+            return entry + (1L << CURRENT_SHIFT);
+        }
+
+        /**
+         * Estimates the number of events in the sliding
+         * window ending now.
+         *
+         * @param entry the entry in the current window
+         * @param progress the progress into the current
+         * window out of 1024
+         * @return the estimated count
+         */
+        private static long estimate(long entry, long progress) {
+            long current = (entry >>> CURRENT_SHIFT) & COUNT_MASK;
+            long previous = entry & COUNT_MASK;
+            return current + ((previous * (1024 - progress)) >>> 10);
+        }
+
+        /**
+         * Scrambles the bits of the given key.
+         *
+         * @param key the key
+         * @return the hash of the key
+         */
+        private static long mix(long key) {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+            key *= 0xC4CEB9FE1A85EC53L;
+            key ^= key >>> 33;
+            return key;
+        }
+
+        /**
+         * Closes a child channel that has not yet been
+         * registered to an event loop.
+         *
+         * @param channel the channel to close
+         */
+        static void reject(Object channel) {
+            Object unsafe = invokeMethod(CH_UNSAFE_ME, channel);
+            invokeMethod(CH_UNSAFE_CLOSE_FORCIBLY_ME, unsafe);
+        }
+    }
+
+    /**
+     * A watchdog which times each call to the packet,
+     * phase, read batch and flush handlers in order to find
+     * handlers that stall the event loop on which they are
+     * called.
+     *
+     * <p>Calls that take longer than the stall threshold
+     * are recorded along with the packet class and the
+     * player and address of the connection, and only the
+     * longest stalls are retained.
+     * Timing a call only uses {@link System#nanoTime()} and
+     * does not allocate once the calling thread and handler
+     * have been seen.</p>
+     *
+     * <p>Optionally, a monitor thread samples the stack
+     * trace of event loops that have been inside of a
+     * handler for longer than the sample threshold, and
+     * a handler that stalls a number of times in a row can
+     * be bypassed, in which case packets are passed through
+     * without calling it until {@link #clearBypass()} is
+     * called. Other handlers keep being called.</p>
+     */
+    public static class HandlerWatchdog {
+        private final long stallThresholdNanos;
+        private final int capacity;
+        // The retained stalls, shortest first so that it is
+        // evicted by a longer one once full
+        private final PriorityQueue<StallRecord> stalls;
+        // The duration a stall must exceed to be retained
+        private volatile long retainThresholdNanos;
+
+        private volatile long sampleThresholdNanos;
+        private volatile int bypassAfter;
+
+        // Consecutive stalls and bypass state of each handler
+        private final Map<Object, HandlerState> handlerStates =
+                new MapMaker().weakKeys().makeMap();
+
+        // The state of each thread that calls the handlers,
+        // read by the monitor thread
+        private final List<Probe> probes = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<Probe> probe = ThreadLocal.withInitial(() -> {
+            Probe probe = new Probe(Thread.currentThread());
+            this.probes.add(probe);
+            return probe;
+        });
+
+        private Thread monitorThread;
+
+        /**
+         * Creates a new watchdog.
+         *
+         * @param stallThreshold the duration after which a
+         * handler call is considered to stall
+         * @param unit the unit of the threshold
+         * @param capacity the number of stalls to retain
+         */
+        public HandlerWatchdog(long stallThreshold, TimeUnit unit, int capacity) {
+            this.stallThresholdNanos = unit.toNanos(stallThreshold);
+            this.capacity = capacity;
+            this.stalls = new PriorityQueue<>(Math.max(1, capacity),
+                    Comparator.comparingLong(StallRecord::getDurationNanos));
+            this.retainThresholdNanos = capacity == 0 ? Long.MAX_VALUE : 0;
+        }
+
+        /**
+         * Sets the duration after which the monitor thread
+         * samples the stack trace of a handler that has not
+         * yet returned.
+         *
+         * <p>This takes effect the next time the watchdog is
+         * started.</p>
+         *
+         * @param sampleThreshold the sample threshold, or
+         * {@code 0} to disable the monitor thread
+         * @param unit the unit of the threshold
+         */
+        public void setSampleThreshold(long sampleThreshold, TimeUnit unit) {
+            this.sampleThresholdNanos = unit.toNanos(sampleThreshold);
+        }
+
+        /**
+         * Sets the number of consecutive stalls after which a
+         * handler is bypassed.
+         *
+         * @param bypassAfter the number of stalls, or
+         * {@code 0} to never bypass a handler
+         */
+        public void setBypassAfter(int bypassAfter) {
+            this.bypassAfter = bypassAfter;
+        }
+
+        /**
+         * Determines whether the given handler is bypassed
+         * because it has stalled too many times.
+         *
+         * @param handler the packet, phase, read batch or
+         * flush handler to check
+         * @return {@code true} if the handler is bypassed
+         */
+        public boolean isBypassed(Object handler) {
+            HandlerState state = this.handlerStates.get(handler);
+            return state != null && state.bypassed;
+        }
+
+        /**
+         * Resumes calling any handlers that were bypassed.
+         */
+        public void clearBypass() {
+            this.handlerStates.clear();
+        }
+
+        /**
+         * Obtains the stalls currently retained by this
+         * watchdog, from the longest to the shortest.
+         *
+         * @return a snapshot of the recorded stalls
+         */
+        public List<StallRecord> getStalls() {
+            List<StallRecord> snapshot;
+            synchronized (this.stalls) {
+                snapshot = new ArrayList<>(this.stalls);
+            }
+
+            snapshot.sort((a, b) -> Long.compare(b.getDurationNanos(), a.getDurationNanos()));
+            return snapshot;
+        }
+
+        /**
+         * Calls the given handler and times the call.
+         *
+         * @param handler the handler to call
+         * @param cc the connection passed to the handler
+         * @param packet the packet passed to the handler
+         * @param inbound whether the handler is the inbound
+         * handler
+         * @return the packet returned by the handler, or the
+         * given packet if the handler is bypassed
+         */
+        Object apply(BiFunction<ClientConnection, Object, Object> handler, ClientConnection cc,
+                     Object packet, boolean inbound) {
+            HandlerState state = this.getState(handler);
+            if (state.bypassed) {
+                return packet;
+            }
+
+            // Handlers may be called from inside of another
+            // handler, e.g. by writing a packet, so the outer
+            // call is resumed once this one returns
+            Probe probe = this.probe.get();
+            long start = System.nanoTime();
+            StackTraceElement[] outerSample = probe.sample;
+            long outerStart = probe.begin(start);
+            try {
+                return handler.apply(cc, packet);
+            } finally {
+                this.end(state, probe, start, outerStart, outerSample, cc, packet.getClass(), inbound);
+            }
+        }
+
+        /**
+         * Calls the given read batch or flush handler and
+         * times the call.
+         *
+         * @param handler the handler to call
+         * @param cc the connection passed to the handler
+         * @param inbound whether the handler is the read
+         * batch handler
+         */
+        void accept(Consumer<ClientConnection> handler, ClientConnection cc, boolean inbound) {
+            HandlerState state = this.getState(handler);
+            if (state.bypassed) {
+                return;
+            }
+
+            Probe probe = this.probe.get();
+            long start = System.nanoTime();
+            StackTraceElement[] outerSample = probe.sample;
+            long outerStart = probe.begin(start);
+            try {
+                handler.accept(cc);
+            } finally {
+                this.end(state, probe, start, outerStart, outerSample, cc, null, inbound);
+            }
+        }
+
+        /**
+         * Obtains the stall state of the given handler,
+         * creating it if it has not been called before.
+         *
+         * @param handler the handler
+         * @return the state of the handler
+         */
+        private HandlerState getState(Object handler) {
+            HandlerState state = this.handlerStates.get(handler);
+            if (state == null) {
+                state = this.handlerStates.computeIfAbsent(handler, k -> new HandlerState());
+            }
+
+            return state;
+        }
+
+        /**
+         * Ends the timing of a handler call, recording it if
+         * it stalled.
+         *
+         * @param state the state of the handler
+         * @param probe the probe of the calling thread
+         * @param start the time the call began
+         * @param outerStart the value returned by
+         * {@link Probe#begin(long)}
+         * @param outerSample the sample of the outer call
+         * when this call began
+         * @param cc the connection passed to the handler
+         * @param packetCls the class of the packet passed to
+         * the handler, or {@code null}
+         * @param inbound whether the handler is an inbound
+         * handler
+         */
+        private void end(HandlerState state, Probe probe, long start, long outerStart,
+                         StackTraceElement[] outerSample, ClientConnection cc, Class<?> packetCls,
+                         boolean inbound) {
+            long duration = System.nanoTime() - start;
+            StackTraceElement[] sample = probe.end(outerStart, outerSample);
+
+            AtomicInteger stallCount = state.stallCount;
+            if (duration >= this.stallThresholdNanos) {
+                if (duration > this.retainThresholdNanos) {
+                    SocketAddress address = invokeMethod(CH_REMOTE_ADDR_ME, cc.channelInst);
+                    this.recordStall(new StallRecord(inbound, packetCls, cc.uuid, address, duration,
+                            System.currentTimeMillis(), sample));
+                }
+
+                int bypassAfter = this.bypassAfter;
+                if (stallCount.incrementAndGet() >= bypassAfter && bypassAfter > 0) {
+                    state.bypassed = true;
+                }
+            } else if (stallCount.get() != 0) {
+                stallCount.set(0);
+            }
+        }
+
+        /**
+         * Retains the given record if there is space, or if
+         * it is longer than the shortest retained stall, in
+         * which case the shortest is evicted.
+         *
+         * @param record the record to add
+         */
+        private void recordStall(StallRecord record) {
+            synchronized (this.stalls) {
+                if (this.stalls.size() >= this.capacity) {
+                    StallRecord shortest = this.stalls.peek();
+                    if (shortest == null || shortest.getDurationNanos() >= record.getDurationNanos()) {
+                        return;
+                    }
+
+                    this.stalls.poll();
+                }
+
+                this.stalls.add(record);
+                if (this.stalls.size() >= this.capacity) {
+                    this.retainThresholdNanos = this.stalls.peek().getDurationNanos();
+                }
+            }
+        }
+
+        /**
+         * Starts the monitor thread if stack sampling is
+         * enabled.
+         */
+        synchronized void start() {
+            long sampleThresholdNanos = this.sampleThresholdNanos;
+            if (this.monitorThread != null || sampleThresholdNanos <= 0) {
+                return;
+            }
+
+            long intervalMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(sampleThresholdNanos) / 2);
+            Thread monitorThread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long now = System.nanoTime();
+                    for (Probe probe : this.probes) {
+                        probe.sampleIfStalled(now, sampleThresholdNanos);
+                    }
+
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }, "TinierProtocol Watchdog");
+            monitorThread.setDaemon(true);
+            monitorThread.start();
+
+            this.monitorThread = monitorThread;
+        }
+
+        /**
+         * Stops the monitor thread, if it is running.
+         */
+        synchronized void stop() {
+            if (this.monitorThread != null) {
+                this.monitorThread.interrupt();
+                this.monitorThread = null;
+            }
+        }
+
+        /**
+         * The stall state of a single handler.
+         */
+        private static class HandlerState {
+            private final AtomicInteger stallCount = new AtomicInteger();
+            private volatile boolean bypassed;
+        }
+
+        /**
+         * The state of a single thread calling the handlers.
+         */
+        private static class Probe {
+            private final Thread thread;
+
+            // Start time of the innermost current call, or 0
+            // if the thread is not in a handler
+            private volatile long startNanos;
+            private volatile StackTraceElement[] sample;
+            // The number of handler calls the thread is in
+            private int depth;
+
+            /**
+             * Creates a new probe for the given thread.
+             *
+             * @param thread the thread calling the handlers
+             */
+            Probe(Thread thread) {
+                this.thread = thread;
+            }
+
+            /**
+             * Marks the beginning of a handler call, which may
+             * be nested inside of another.
+             *
+             * @param startNanos the start time of the call
+             * @return the start time of the outer call, or 0
+             * if there is none
+             */
+            long begin(long startNanos) {
+                long outerStart = this.startNanos;
+                this.depth++;
+                this.sample = null;
+                // 0 is reserved for threads that are idle
+                this.startNanos = startNanos == 0 ? 1 : startNanos;
+                return outerStart;
+            }
+
+            /**
+             * Marks the end of a handler call and resumes the
+             * outer call, if any.
+             *
+             * @param outerStart the value returned by
+             * {@link #begin(long)}
+             * @param outerSample the sample of the outer call
+             * when this call began
+             * @return the stack trace sampled during the call,
+             * or {@code null} if none was taken
+             */
+            StackTraceElement[] end(long outerStart, StackTraceElement[] outerSample) {
+                StackTraceElement[] sample = this.sample;
+                if (--this.depth == 0) {
+                    this.startNanos = 0;
+                } else {
+                    this.sample = outerSample;
+                    this.startNanos = outerStart;
+                }
+
+                return sample;
+            }
+
+            /**
+             * Samples the stack trace of the thread if it has
+             * been in the current handler call for longer than
+             * the given threshold.
+             *
+             * @param now the current time
+             * @param thresholdNanos the sample threshold
+             */
+            void sampleIfStalled(long now, long thresholdNanos) {
+                long startNanos = this.startNanos;
+                if (startNanos == 0 || this.sample != null || now - startNanos < thresholdNanos) {
+                    return;
+                }
+
+                StackTraceElement[] sample = this.thread.getStackTrace();
+                // Only keep the sample if it was taken during
+                // the same call
+                if (this.startNanos == startNanos) {
+                    this.sample = sample;
+                }
+            }
+        }
+
+        /**
+         * A record of a single handler call that stalled.
+         */
+        public static class StallRecord {
+            private final boolean inbound;
+            private final Class<?> packetCls;
+            private final UUID playerId;
+            private final SocketAddress address;
+            private final long durationNanos;
+            private final long timestamp;
+            private final StackTraceElement[] sample;
+
+            /**
+             * Creates a new stall record.
+             *
+             * @param inbound whether an inbound handler
+             * stalled
+             * @param packetCls the class of the packet, or
+             * {@code null}
+             * @param playerId the UUID of the player, or
+             * {@code null}
+             * @param address the address of the connection
+             * @param durationNanos the duration of the call
+             * @param timestamp the time the call ended
+             * @param sample the sampled stack trace, or
+             * {@code null}
+             */
+            StallRecord(boolean inbound, Class<?> packetCls, UUID playerId, SocketAddress address,
+                        long durationNanos, long timestamp, StackTraceElement[] sample) {
+                this.inbound = inbound;
+                this.packetCls = packetCls;
+                this.playerId = playerId;
+                this.address = address;
+                this.durationNanos = durationNanos;
+                this.timestamp = timestamp;
+                this.sample = sample;
+            }
+
+            /**
+             * Determines whether it was an inbound handler
+             * that stalled.
+             *
+             * @return {@code true} for the inbound packet,
+             * phase and read batch handlers, {@code false} for
+             * the outbound packet, phase and flush handlers
+             */
+            public boolean isInbound() {
+                return this.inbound;
+            }
+
+            /**
+             * Obtains the class of the packet that was passed
+             * to the handler.
+             *
+             * @return the packet class, or {@code null} if the
+             * read batch or flush handler stalled
+             */
+            public Class<?> getPacketClass() {
+                return this.packetCls;
+            }
+
+            /**
+             * Obtains the UUID of the player of the connection
+             * that was passed to the handler.
+             *
+             * <p>The connection itself is not retained, so
+             * that a record does not keep a closed connection
+             * from being collected.</p>
+             *
+             * @return the player's UUID, or {@code null} if the
+             * player had not joined yet
+             */
+            public UUID getPlayerId() {
+                return this.playerId;
+            }
+
+            /**
+             * Obtains the remote address of the connection
+             * that was passed to the handler.
+             *
+             * @return the address of the connection
+             */
+            public SocketAddress getAddress() {
+                return this.address;
+            }
+
+            /**
+             * Obtains the duration of the handler call.
+             *
+             * @return the duration, in nanoseconds
+             */
+            public long getDurationNanos() {
+                return this.durationNanos;
+            }
+
+            /**
+             * Obtains the time at which the handler returned.
+             *
+             * @return the epoch time, in milliseconds
+             */
+            public long getTimestamp() {
+                return this.timestamp;
+            }
+
+            /**
+             * Obtains the stack trace sampled by the monitor
+             * thread while the handler was running.
+             *
+             * @return the stack trace, or {@code null} if it
+             * was not sampled
+             */
+            public StackTraceElement[] getSample() {
+                return this.sample;
+            }
+        }
+    }
+
+    /**
+     * A consumer of inbound packets which is called on the
+     * main thread once per server tick.
+     *
+     * <p>The packets accepted by this consumer are
+     * appended to a lock-free queue on the event loop that
+     * received them and are then drained on the main thread
+     * as a single batch, grouped by the connection that sent
+     * them, in the order that they were received.</p>
+     *
+     * <p>The number of buffered packets is bounded, so that
+     * a main thread which falls behind does not let the
+     * buffer grow without limit. Packets received once it
+     * is full are dropped and counted.</p>
+     */
+    public static class MainThreadConsumer {
+        // The default number of packets that may be buffered
+        private static final int DEFAULT_CAPACITY = 16384;
+
+        private final BiConsumer<ClientConnection, List<Object>> consumer;
+        private final Set<Class<?>> packetClasses;
+        private final int capacity;
+
+        // Buffered connection-packet pairs and their count,
+        // used to bound each drain to the packets that were
+        // already buffered when it started
+        private final Queue<Object[]> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final LongAdder droppedCount = new LongAdder();
+
+        /**
+         * Creates a new main thread consumer.
+         *
+         * @param consumer the function which receives each
+         * connection and the packets it sent since the last
+         * tick
+         * @param packetClasses the NMS packet classes to
+         * deliver to the consumer
+         */
+        public MainThreadConsumer(BiConsumer<ClientConnection, List<Object>> consumer,
+                                  Class<?>... packetClasses) {
+            this(consumer, DEFAULT_CAPACITY, packetClasses);
+        }
+
+        /**
+         * Creates a new main thread consumer.
+         *
+         * @param consumer the function which receives each
+         * connection and the packets it sent since the last
+         * tick
+         * @param capacity the number of packets that may be
+         * buffered between two ticks
+         * @param packetClasses the NMS packet classes to
+         * deliver to the consumer
+         */
+        public MainThreadConsumer(BiConsumer<ClientConnection, List<Object>> consumer, int capacity,
+                                  Class<?>... packetClasses) {
+            this.consumer = consumer;
+            this.capacity = capacity;
+            this.packetClasses = new HashSet<>(Arrays.asList(packetClasses));
+        }
+
+        /**
+         * Obtains the number of packets dropped because the
+         * buffer was full.
+         *
+         * @return the number of dropped packets
+         */
+        public long getDroppedCount() {
+            return this.droppedCount.sum();
+        }
+
+        /**
+         * Buffers the given packet if it is accepted by this
+         * consumer.
+         *
+         * @param cc the connection that received the packet
+         * @param packet the inbound packet
+         */
+        void offer(ClientConnection cc, Object packet) {
+            if (!this.packetClasses.contains(packet.getClass())) {
+                return;
+            }
+
+            // The slot is reserved before the packet is
+            // buffered, so a drain may briefly count a packet
+            // that it cannot poll yet
+            if (this.pendingCount.incrementAndGet() > this.capacity) {
+                this.pendingCount.decrementAndGet();
+                this.droppedCount.increment();
+                return;
+            }
+
+            this.pending.offer(new Object[]{cc, packet});
+        }
+
+        /**
+         * Delivers the buffered packets to the consumer.
+         *
+         * @param plugin the plugin used to log any errors
+         * thrown by the consumer
+         */
+        void drain(Plugin plugin) {
+            int count = this.pendingCount.get();
+            if (count == 0) {
+                return;
+            }
+
+            Map<ClientConnection, List<Object>> batches = new LinkedHashMap<>();
+            int polled = 0;
+            Object[] entry;
+            while (polled < count && (entry = this.pending.poll()) != null) {
+                batches.computeIfAbsent((ClientConnection) entry[0], k -> new ArrayList<>())
+                        .add(entry[1]);
+                polled++;
+            }
+            this.pendingCount.addAndGet(-polled);
+
+            for (Map.Entry<ClientConnection, List<Object>> batch : batches.entrySet()) {
+                try {
+                    this.consumer.accept(batch.getKey(), batch.getValue());
+                } catch (Throwable t) {
+                    plugin.getLogger().log(Level.SEVERE, "Error delivering packets to main thread consumer", t);
+                }
+            }
+        }
+
+        /**
+         * Discards the packets that have not been delivered
+         * yet.
+         */
+        void clear() {
+            int cleared = 0;
+            while (this.pending.poll() != null) {
+                cleared++;
+            }
+
+            this.pendingCount.addAndGet(-cleared);
+        }
+    }
+
+    /**
+     * An observational subscription to the packets
+     * intercepted by {@code TinierProtocol}, delivered to a
+     * consumer running on its own thread.
+     *
+     * <p>Each event loop publishes to its own bounded ring
+     * buffer, which only that event loop writes to, using a
+     * single ordered store. Publishing never blocks: once a
+     * ring buffer is full, either the oldest or the newest
+     * event is dropped according to the {@link DropPolicy},
+     * and the dropped event is counted.</p>
+     *
+     * <p>The events are preallocated by each ring buffer
+     * and the consumer is passed the same {@link TapEvent}
+     * for every event, so publishing does not allocate. By
+     * default, events do not hold on to the packet itself,
+     * only its class, as the packet may be modified or
+     * reused by the time the consumer sees it.</p>
+     */
+    public static class PacketTap {
+        // The longest the consumer thread waits for a signal
+        // once every ring buffer has been drained, in case
+        // the signal was missed because the ordered store of
+        // an event was not yet visible
+        private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+        /**
+         * The events dropped once a ring buffer is full.
+         */
+        public enum DropPolicy {
+            /**
+             * Overwrite the oldest event not yet consumed.
+             */
+            DROP_OLDEST,
+            /**
+             * Discard the event being published.
+             */
+            DROP_NEWEST
+        }
+
+        private final Consumer<TapEvent> consumer;
+        private final int capacity;
+        private final DropPolicy dropPolicy;
+
+        private volatile boolean isInbound = true;
+        private volatile boolean isOutbound = true;
+        private volatile boolean retainPackets;
+
+        private final LongAdder droppedCount = new LongAdder();
+
+        // The ring buffer of each event loop thread that has
+        // published to this tap
+        private final Map<Thread, Ring> rings = new MapMaker().weakKeys().makeMap();
+        // The event passed to the consumer, which is only
+        // used by the consumer thread
+        private final TapEvent event = new TapEvent();
+
+        private volatile Thread consumerThread;
+        // Whether the consumer thread is about to park, in
+        // which case publishing an event unparks it
+        private volatile boolean isWaiting;
+
+        /**
+         * Creates a new packet tap.
+         *
+         * @param consumer the consumer of the events, called
+         * on the tap's own thread
+         * @param capacity the number of events buffered for
+         * each event loop, rounded up to a power of 2
+         * @param dropPolicy the events to drop once a buffer
+         * is full
+         */
+        public PacketTap(Consumer<TapEvent> consumer, int capacity, DropPolicy dropPolicy) {
+            this.consumer = consumer;
+            this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+            this.dropPolicy = dropPolicy;
+        }
+
+        /**
+         * Sets whether inbound (serverbound) packets are
+         * published to this tap. Defaults to {@code true}.
+         *
+         * @param isInbound {@code true} to publish inbound
+         * packets
+         */
+        public void setInbound(boolean isInbound) {
+            this.isInbound = isInbound;
+        }
+
+        /**
+         * Sets whether outbound (clientbound) packets are
+         * published to this tap. Defaults to {@code true}.
+         *
+         * @param isOutbound {@code true} to publish outbound
+         * packets
+         */
+        public void setOutbound(boolean isOutbound) {
+            this.isOutbound = isOutbound;
+        }
+
+        /**
+         * Sets whether events hold on to the packet that was
+         * published. Defaults to {@code false}.
+         *
+         * @param retainPackets {@code true} to hold on to the
+         * packets
+         */
+        public void setRetainPackets(boolean retainPackets) {
+            this.retainPackets = retainPackets;
+        }
+
+        /**
+         * Obtains the number of events that were dropped
+         * because a ring buffer was full.
+         *
+         * @return the number of dropped events
+         */
+        public long getDroppedCount() {
+            return this.droppedCount.sum();
+        }
+
+        /**
+         * Publishes a packet to the ring buffer of the
+         * calling event loop.
+         *
+         * @param cc the connection of the packet
+         * @param packet the packet
+         * @param inbound whether the packet is inbound
+         * @param timestamp the {@link System#nanoTime()} at
+         * which the packet was intercepted
+         */
+        void publish(ClientConnection cc, Object packet, boolean inbound, long timestamp) {
+            if (inbound ? !this.isInbound : !this.isOutbound) {
+                return;
+            }
+
+            Thread thread = Thread.currentThread();
+            Ring ring = this.rings.get(thread);
+            if (ring == null) {
+                ring = this.rings.computeIfAbsent(thread, k -> new Ring(this.capacity));
+            }
+
+            long tail = ring.tail.get();
+            long head = ring.head.get();
+            if (tail - head >= ring.slots.length) {
+                if (this.dropPolicy == DropPolicy.DROP_NEWEST) {
+                    this.droppedCount.increment();
+                    return;
+                }
+
+                // If the consumer advances first, a slot was
+                // freed up anyway
+                if (ring.head.compareAndSet(head, head + 1)) {
+                    this.droppedCount.increment();
+                }
+            }
+
+            // The slot is written in place and published to the
+            // consumer by the ordered store of the tail
+            TapEvent slot = ring.slots[(int) tail & ring.mask];
+            slot.packet = this.retainPackets ? packet : null;
+            slot.packetCls = packet.getClass();
+            slot.connection = cc;
+            slot.inbound = inbound;
+            slot.size = inbound ? cc.inboundBandwidth.lastWireLength : -1;
+            slot.timestamp = timestamp;
+            ring.tail.lazySet(tail + 1);
+
+            if (this.isWaiting) {
+                LockSupport.unpark(this.consumerThread);
+            }
+        }
+
+        /**
+         * Delivers every event currently buffered to the
+         * consumer.
+         *
+         * @param plugin the plugin used to log errors thrown
+         * by the consumer
+         * @return {@code true} if any event was delivered
+         */
+        private boolean drain(Plugin plugin) {
+            TapEvent event = this.event;
+            boolean drained = false;
+            for (Ring ring : this.rings.values()) {
+                while (true) {
+                    long head = ring.head.get();
+                    if (head >= ring.tail.get()) {
+                        break;
+                    }
+
+                    // The slot may be overwritten by the event
+                    // loop dropping it while it is copied, in
+                    // which case the head will have moved and
+                    // the copy is discarded
+                    event.copy(ring.slots[(int) head & ring.mask]);
+                    if (!ring.head.compareAndSet(head, head + 1)) {
+                        continue;
+                    }
+
+                    drained = true;
+                    try {
+                        this.consumer.accept(event);
+                    } catch (Throwable t) {
+                        plugin.getLogger().log(Level.SEVERE, "Error delivering packet to tap", t);
+                    }
+                }
+            }
+
+            event.clear();
+            return drained;
+        }
+
+        /**
+         * Starts, if not already, the consumer thread.
+         *
+         * @param plugin the plugin used to log errors thrown
+         * by the consumer
+         */
+        synchronized void start(Plugin plugin) {
+            if (this.consumerThread != null) {
+                return;
+            }
+
+            Thread consumerThread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (!this.drain(plugin)) {
+                        // Drain again once the flag is set, as an
+                        // event published before then did not
+                        // unpark this thread
+                        this.isWaiting = true;
+                        if (!this.drain(plugin)) {
+                            LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                        }
+
+                        this.isWaiting = false;
+                    }
+                }
+            }, "TinierProtocol Tap");
+            consumerThread.setDaemon(true);
+            consumerThread.start();
+
+            this.consumerThread = consumerThread;
+        }
+
+        /**
+         * Stops the consumer thread, if it is running.
+         */
+        synchronized void stop() {
+            if (this.consumerThread != null) {
+                this.consumerThread.interrupt();
+                this.consumerThread = null;
+            }
+        }
+
+        /**
+         * Discards the ring buffers of every event loop,
+         * along with the events that have not been consumed.
+         */
+        void clear() {
+            this.rings.clear();
+        }
+
+        /**
+         * A ring buffer written to by a single event loop.
+         */
+        private static class Ring {
+            private final TapEvent[] slots;
+            private final int mask;
+
+            // The sequence of the next event to consume,
+            // advanced by the consumer or by the event loop
+            // when it drops the oldest event
+            private final AtomicLong head = new AtomicLong();
+            // The sequence of the next event to publish, only
+            // advanced by the event loop
+            private final AtomicLong tail = new AtomicLong();
+
+            /**
+             * Creates a new ring buffer.
+             *
+             * @param capacity the capacity, a power of 2
+             */
+            Ring(int capacity) {
+                this.slots = new TapEvent[capacity];
+                for (int i = 0; i < capacity; i++) {
+                    this.slots[i] = new TapEvent();
+                }
+
+                this.mask = capacity - 1;
+            }
+        }
+
+        /**
+         * A single packet published to a tap.
+         *
+         * <p>Events are reused once the consumer returns, so
+         * the consumer must copy any values that it needs
+         * later on rather than hold on to the event.</p>
+         */
+        public static class TapEvent {
+            private Object packet;
+            private Class<?> packetCls;
+            private ClientConnection connection;
+            private boolean inbound;
+            private int size;
+            private long timestamp;
+
+            /**
+             * Creates a new, empty tap event.
+             */
+            TapEvent() {
+            }
+
+            /**
+             * Copies the values of the given event into this
+             * event.
+             *
+             * @param event the event to copy
+             */
+            void copy(TapEvent event) {
+                this.packet = event.packet;
+                this.packetCls = event.packetCls;
+                this.connection = event.connection;
+                this.inbound = event.inbound;
+                this.size = event.size;
+                this.timestamp = event.timestamp;
+            }
+
+            /**
+             * Clears the references held by this event.
+             */
+            void clear() {
+                this.packet = null;
+                this.packetCls = null;
+                this.connection = null;
+            }
+
+            /**
+             * Obtains the packet that was published.
+             *
+             * @return the packet, or {@code null} if the tap
+             * does not retain packets
+             */
+            public Object getPacket() {
+                return this.packet;
+            }
+
+            /**
+             * Obtains the class of the packet that was
+             * published.
+             *
+             * @return the packet class
+             */
+            public Class<?> getPacketClass() {
+                return this.packetCls;
+            }
+
+            /**
+             * Obtains the connection of the packet.
+             *
+             * @return the connection
+             */
+            public ClientConnection getConnection() {
+                return this.connection;
+            }
+
+            /**
+             * Determines whether the packet is inbound.
+             *
+             * @return {@code true} for inbound (serverbound)
+             * packets, {@code false} for outbound ones
+             */
+            public boolean isInbound() {
+                return this.inbound;
+            }
+
+            /**
+             * Obtains the length of the frame in which the
+             * packet was received, including its length
+             * prefix.
+             *
+             * <p>The length is only known for inbound packets
+             * received by connections that count their bytes,
+             * see {@link TinierProtocol#setBandwidthAccounting(boolean)}.
+             * Outbound packets are published before they are
+             * encoded.</p>
+             *
+             * @return the length of the frame, or {@code -1} if
+             * it is not known
+             */
+            public int getSize() {
+                return this.size;
+            }
+
+            /**
+             * Obtains the time at which the packet was
+             * intercepted.
+             *
+             * @return the {@link System#nanoTime()} timestamp
+             */
+            public long getTimestamp() {
+                return this.timestamp;
+            }
+        }
+    }
+
+    /**
+     * A pool of threads which compresses large outbound
+     * frames, so that an event loop can keep serving its
+     * other connections while chunks and maps are sent.
+     *
+     * <p>Frames that are at least as large as both the
+     * offload threshold and the server's compression
+     * threshold are compressed by a worker thread, each of
+     * which reuses its own {@link Deflater}. The compressed
+     * frames are identical to those of the server's
+     * compressor, and are written by the channel's event
+     * loop in the order in which they were sent along with
+     * any frames sent in the meantime. Smaller frames are
+     * compressed inline by the server as usual.</p>
+     *
+     * <p>The number of frames waiting for a worker thread
+     * and the number of frames each connection has with the
+     * worker threads are both bounded. Large frames sent
+     * while either is full are compressed inline.</p>
+     */
+    public static class CompressionOffload {
+        // ByteBufAllocator ChannelHandlerContext#alloc()
+        private static final Method CHC_ALLOC_ME = lookupMethod(CHC_CLS, "alloc");
+        // ByteBuf ByteBufAllocator#ioBuffer(int)
+        private static final Method BBA_IO_BUFFER_ME = lookupMethod(
+                lookupClass("io.netty.buffer.ByteBufAllocator"), "ioBuffer", int.class);
+        // boolean Promise#tryFailure(Throwable)
+        private static final Method PROMISE_TRY_FAILURE_ME = lookupMethod(
+                lookupClass("io.netty.util.concurrent.Promise"), "tryFailure", Throwable.class);
+        // boolean ChannelHandlerContext#isRemoved()
+        private static final Method CHC_IS_REMOVED_ME = lookupMethod(CHC_CLS, "isRemoved");
+        // ChannelHandler ChannelHandlerContext#handler()
+        private static final Method CHC_HANDLER_ME = lookupMethod(CHC_CLS, "handler");
+
+        // The default number of frames that may wait for a worker
+        private static final int DEFAULT_QUEUE_CAPACITY = 1024;
+        // The number of frames that a single connection may have
+        // with the workers at once
+        private static final int MAX_OFFLOADED_FRAMES = 32;
+
+        private final int offloadThreshold;
+        private final int threads;
+        private final int queueCapacity;
+
+        private final AtomicInteger workerCounter = new AtomicInteger();
+        private final LongAdder offloadedCount = new LongAdder();
+
+        private volatile ExecutorService executor;
+
+        /**
+         * Creates a new compression offload.
+         *
+         * @param offloadThreshold the uncompressed size, in
+         * bytes, from which frames are compressed by the
+         * worker threads
+         * @param threads the number of worker threads
+         */
+        public CompressionOffload(int offloadThreshold, int threads) {
+            this(offloadThreshold, threads, DEFAULT_QUEUE_CAPACITY);
+        }
+
+        /**
+         * Creates a new compression offload.
+         *
+         * @param offloadThreshold the uncompressed size, in
+         * bytes, from which frames are compressed by the
+         * worker threads
+         * @param threads the number of worker threads
+         * @param queueCapacity the number of frames that may
+         * wait for a worker thread before frames are
+         * compressed inline
+         */
+        public CompressionOffload(int offloadThreshold, int threads, int queueCapacity) {
+            this.offloadThreshold = offloadThreshold;
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+        }
+
+        /**
+         * Obtains the uncompressed size from which frames
+         * are compressed by the worker threads.
+         *
+         * @return the offload threshold, in bytes
+         */
+        public int getOffloadThreshold() {
+            return this.offloadThreshold;
+        }
+
+        /**
+         * Obtains the number of frames that have been
+         * compressed by the worker threads.
+         *
+         * @return the number of offloaded frames
+         */
+        public long getOffloadedCount() {
+            return this.offloadedCount.sum();
+        }
+
+        /**
+         * Starts, if not already, the worker threads.
+         */
+        synchronized void start() {
+            if (this.executor != null) {
+                return;
+            }
+
+            // Tasks rejected once the queue is full are
+            // compressed inline instead
+            this.executor = new ThreadPoolExecutor(this.threads, this.threads,
+                    0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(this.queueCapacity), task -> {
+                Worker worker = new Worker(task,
+                        "TinierProtocol Compression #" + this.workerCounter.incrementAndGet());
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+
+        /**
+         * Stops the worker threads once the frames already
+         * submitted have been compressed. Frames sent
+         * afterwards are compressed inline.
+         */
+        synchronized void stop() {
+            if (this.executor != null) {
+                this.executor.shutdown();
+                this.executor = null;
+            }
+        }
+
+        /**
+         * Submits the given task to a worker thread.
+         *
+         * @param task the task to run
+         * @throws RejectedExecutionException if the worker
+         * threads are stopped or too many frames are waiting
+         * for them
+         */
+        private void submit(Runnable task) {
+            ExecutorService executor = this.executor;
+            if (executor == null) {
+                throw new RejectedExecutionException("Compression offload is stopped");
+            }
+
+            executor.execute(task);
+        }
+
+        /**
+         * Compresses the given frame as the server's
+         * compressor does, using the calling worker's
+         * deflater.
+         *
+         * @param frame the uncompressed frame, which is not
+         * released
+         * @param allocator the allocator of the channel to
+         * which the frame is written
+         * @return the compressed frame
+         */
+        private static Object compress(Object frame, Object allocator) {
+            Worker worker = (Worker) Thread.currentThread();
+            int length = invokeMethod(SendingHandles.BB_READABLE_BYTES_ME, frame);
+            int readerIndex = invokeMethod(SendingHandles.BB_READER_INDEX_ME, frame);
+            byte[] input = worker.getInput(length);
+            invokeMethod(SendingHandles.BB_GET_BYTES_RANGE_ME, frame, readerIndex, input, 0, length);
+
+            // Deflating never grows the data by more than this,
+            // so the buffer does not need to be expanded
+            int estimate = varIntSize(length) + (int) Math.ceil(length * 1.001) + 12;
+            Object buf = invokeMethod(BBA_IO_BUFFER_ME, allocator, estimate);
+            byte[] output = worker.output;
+            int idx = writeVarInt(output, 0, length);
+            invokeMethod(SendingHandles.BB_WRITE_BYTES_ME, buf, output, 0, idx);
+
+            Deflater deflater = worker.deflater;
+            try {
+                deflater.setInput(input, 0, length);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int deflated = deflater.deflate(output);
+                    invokeMethod(SendingHandles.BB_WRITE_BYTES_ME, buf, output, 0, deflated);
+                }
+            } finally {
+                deflater.reset();
+            }
+
+            return buf;
+        }
+
+        /**
+         * A worker thread along with the deflater and the
+         * buffers that it reuses for each frame.
+         */
+        private static class Worker extends Thread {
+            private final Deflater deflater = new Deflater();
+            private final byte[] output = new byte[8192];
+            private byte[] input = new byte[8192];
+
+            /**
+             * Creates a new worker thread.
+             *
+             * @param task the task run by the thread
+             * @param name the name of the thread
+             */
+            Worker(Runnable task, String name) {
+                super(task, name);
+            }
+
+            /**
+             * Obtains the input buffer, grown to at least the
+             * given length.
+             *
+             * @param length the required length
+             * @return the input buffer
+             */
+            byte[] getInput(int length) {
+                if (this.input.length < length) {
+                    this.input = new byte[Math.max(length, this.input.length * 2)];
+                }
+
+                return this.input;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    super.run();
+                } finally {
+                    this.deflater.end();
+                }
+            }
+        }
+
+        /**
+         * The frames of a single connection that are
+         * waiting to be written, in the order in which they
+         * were sent.
+         *
+         * <p>The pending frames are only used by the
+         * channel's event loop. The worker threads hand each
+         * compressed frame back through the frame itself and
+         * then have the event loop write it.</p>
+         */
+        static class Stage {
+            private final CompressionOffload offload;
+            private final Queue<PendingFrame> pending = new ArrayDeque<>();
+            private final Runnable drainTask = this::drain;
+
+            // The context of this stage, its allocator and its
+            // event loop, set when the stage is added
+            private Object ctx;
+            private Object allocator;
+            private Executor eventLoop;
+            // The server's compressor and its context, looked
+            // up again if the compressor is replaced
+            private Object compressor;
+            private Object compressCtx;
+            // Whether a flush was requested while frames were
+            // still pending
+            private boolean isFlushPending;
+            // The number of frames with the worker threads
+            private int offloadedFrames;
+            // Whether the stage was removed, in which case no
+            // frame is written anymore
+            private boolean isRemoved;
+
+            /**
+             * Creates a new stage for a connection.
+             *
+             * @param offload the offload which compresses the
+             * connection's large frames
+             */
+            Stage(CompressionOffload offload) {
+                this.offload = offload;
+            }
+
+            /**
+             * Resolves the context of this stage and that of
+             * the server's compressor once the stage is added
+             * to the pipeline.
+             *
+             * @param ctx the context of this stage
+             */
+            void added(Object ctx) {
+                this.ctx = ctx;
+                this.allocator = invokeMethod(CHC_ALLOC_ME, ctx);
+                this.eventLoop = invokeMethod(CHC_EXECUTOR_ME, ctx);
+                this.findCompressor();
+            }
+
+            /**
+             * Writes the given frame, or queues it behind the
+             * frames being compressed.
+             *
+             * @param ctx the context of this stage
+             * @param frame the uncompressed frame
+             * @param promise the promise of the write
+             * @throws Throwable if the write throws
+             */
+            void write(Object ctx, Object frame, Object promise) throws Throwable {
+                if (!this.isOffloaded(frame)) {
+                    if (this.pending.isEmpty()) {
+                        COI_WRITE_MH.invokeExact(ctx, frame, promise);
+                    } else {
+                        this.pending.add(new PendingFrame(ctx, frame, promise, false));
+                    }
+
+                    return;
+                }
+
+                PendingFrame pendingFrame = new PendingFrame(ctx, frame, promise, true);
+                this.pending.add(pendingFrame);
+                try {
+                    Object compressCtx = this.compressCtx;
+                    this.offload.submit(() -> this.compress(pendingFrame, compressCtx));
+                    this.offloadedFrames++;
+                } catch (RejectedExecutionException e) {
+                    // Leave the frame to the server's compressor
+                    pendingFrame.state.set(PendingFrame.READY);
+                    this.drain();
+                }
+            }
+
+            /**
+             * Notes that the connection was flushed, so that
+             * the frames still pending are flushed once they
+             * are written.
+             */
+            void flush() {
+                if (!this.pending.isEmpty()) {
+                    this.isFlushPending = true;
+                }
+            }
+
+            /**
+             * Releases every pending frame and fails its write
+             * once the stage is removed, rather than writing it
+             * through the contexts that are being removed.
+             *
+             * <p>Frames that are still being compressed are
+             * released by their worker thread once it is
+             * done.</p>
+             */
+            void removed() {
+                this.isRemoved = true;
+
+                Throwable cause = new IllegalStateException("Compression stage was removed");
+                PendingFrame pendingFrame;
+                while ((pendingFrame = this.pending.poll()) != null) {
+                    if (!pendingFrame.state.compareAndSet(PendingFrame.COMPRESSING, PendingFrame.DROPPED)) {
+                        pendingFrame.fail(cause);
+                    }
+                }
+            }
+
+            /**
+             * Determines whether the given frame is large
+             * enough to offload.
+             *
+             * @param frame the frame being written
+             * @return {@code true} if the frame is compressed
+             * by a worker thread, {@code false} if it is
+             * compressed inline
+             */
+            private boolean isOffloaded(Object frame) {
+                if (!SendingHandles.BYTE_BUF_CLS.isInstance(frame) ||
+                        this.offloadedFrames >= MAX_OFFLOADED_FRAMES) {
+                    return false;
+                }
+
+                int length = invokeMethod(SendingHandles.BB_READABLE_BYTES_ME, frame);
+                if (length < this.offload.offloadThreshold) {
+                    return false;
+                }
+
+                // The server removes its compressor when
+                // compression is disabled, and adds a new one
+                // if it is enabled again
+                if (this.compressCtx == null || (boolean) invokeMethod(CHC_IS_REMOVED_ME, this.compressCtx)) {
+                    if (!this.findCompressor()) {
+                        return false;
+                    }
+                }
+
+                int threshold = getFieldValue(SendingHandles.PCOMP_THRESHOLD, this.compressor);
+                return length >= threshold;
+            }
+
+            /**
+             * Looks up the server's compressor in the pipeline
+             * of this stage.
+             *
+             * @return {@code true} if the compressor is
+             * present
+             */
+            private boolean findCompressor() {
+                Object pipelineInst = invokeMethod(CHC_PIPELINE_ME, this.ctx);
+                this.compressCtx = invokeMethod(CP_CONTEXT_ME, pipelineInst, MC_COMPRESS_ID);
+                this.compressor = this.compressCtx == null ? null :
+                        invokeMethod(CHC_HANDLER_ME, this.compressCtx);
+                return this.compressCtx != null;
+            }
+
+            /**
+             * Compresses the given frame on a worker thread and
+             * then has the event loop write every frame that
+             * is ready.
+             *
+             * @param pendingFrame the frame to compress
+             * @param compressCtx the context of the server's
+             * compressor, from which the compressed frame is
+             * written
+             */
+            private void compress(PendingFrame pendingFrame, Object compressCtx) {
+                try {
+                    pendingFrame.compressed = CompressionOffload.compress(pendingFrame.frame, this.allocator);
+                    pendingFrame.compressCtx = compressCtx;
+                    this.offload.offloadedCount.increment();
+                } catch (RuntimeException e) {
+                    // Leave the frame to the server's compressor,
+                    // which reports the error if it recurs
+                }
+
+                if (!pendingFrame.state.compareAndSet(PendingFrame.COMPRESSING, PendingFrame.READY)) {
+                    pendingFrame.fail(new IllegalStateException("Compression stage was removed"));
+                    return;
+                }
+
+                try {
+                    this.eventLoop.execute(this.drainTask);
+                } catch (RejectedExecutionException e) {
+                    // The stage is removed before the event loop
+                    // shuts down, which releases the frame
+                }
+            }
+
+            /**
+             * Writes the frames at the head of the queue that
+             * are ready, flushing them if a flush was
+             * requested.
+             */
+            private void drain() {
+                if (this.isRemoved) {
+                    return;
+                }
+
+                boolean isWritten = false;
+                PendingFrame pendingFrame;
+                while ((pendingFrame = this.pending.peek()) != null &&
+                        pendingFrame.state.get() == PendingFrame.READY) {
+                    this.pending.poll();
+                    if (pendingFrame.isOffloaded) {
+                        this.offloadedFrames--;
+                    }
+
+                    pendingFrame.write();
+                    isWritten = true;
+                }
+
+                if (isWritten && this.isFlushPending) {
+                    invokeMethod(COI_FLUSH_ME, this.ctx);
+                    this.isFlushPending = !this.pending.isEmpty();
+                }
+            }
+        }
+
+        /**
+         * A frame waiting to be written by a stage.
+         */
+        private static class PendingFrame {
+            // The frame is with a worker thread
+            static final int COMPRESSING = 0;
+            // The frame can be written
+            static final int READY = 1;
+            // The stage was removed while the frame was with
+            // a worker thread, which then releases it
+            static final int DROPPED = 2;
+
+            private final AtomicInteger state;
+            private final Object ctx;
+            private final Object frame;
+            private final Object promise;
+            private final boolean isOffloaded;
+            // The compressed frame and the compressor's context
+            // from which it is written, set by the worker
+            // thread before the frame is ready
+            private Object compressed;
+            private Object compressCtx;
+
+            /**
+             * Creates a new pending frame.
+             *
+             * @param ctx the context from which to write the
+             * frame
+             * @param frame the frame
+             * @param promise the promise of the write
+             * @param isOffloaded {@code true} if the frame is
+             * passed to a worker thread, {@code false} if it
+             * is ready to be written
+             */
+            PendingFrame(Object ctx, Object frame, Object promise, boolean isOffloaded) {
+                this.state = new AtomicInteger(isOffloaded ? COMPRESSING : READY);
+                this.ctx = ctx;
+                this.frame = frame;
+                this.promise = promise;
+                this.isOffloaded = isOffloaded;
+            }
+
+            /**
+             * Writes the compressed frame if there is one and
+             * the compressor is still present, or else the
+             * frame itself.
+             */
+            void write() {
+                if (this.compressed != null) {
+                    if (!(boolean) invokeMethod(CHC_IS_REMOVED_ME, this.compressCtx)) {
+                        invokeMethod(SendingHandles.RC_RELEASE_ME, this.frame);
+                        invokeMethod(COI_WRITE_ME, this.compressCtx, this.compressed, this.promise);
+                        return;
+                    }
+
+                    invokeMethod(SendingHandles.RC_RELEASE_ME, this.compressed);
+                }
+
+                invokeMethod(COI_WRITE_ME, this.ctx, this.frame, this.promise);
+            }
+
+            /**
+             * Releases the frame and fails its write.
+             *
+             * @param cause the reason the frame is not written
+             */
+            void fail(Throwable cause) {
+                invokeMethod(SendingHandles.RC_RELEASE_ME, this.frame);
+                if (this.compressed != null) {
+                    invokeMethod(SendingHandles.RC_RELEASE_ME, this.compressed);
+                }
+
+                invokeMethod(PROMISE_TRY_FAILURE_ME, this.promise, cause);
+            }
+        }
+    }
+
+    /**
+     * The encodings of a single packet being broadcast,
+     * which are lazily created the first time they are
+     * needed and shared by every connection.
+     *
+     * <p>This class is not thread-safe.</p>
+     */
+    private static class BroadcastEncoding {
+        // nms.PacketDataSerializer
+        private static final Class<?> PDS_CLS = lookupClass(NMS_PACKAGE + "PacketDataSerializer");
+        // PacketDataSerializer#<init>(ByteBuf)
+        private static final Constructor<?> PDS_CTOR = lookupConstructor(PDS_CLS, SendingHandles.BYTE_BUF_CLS);
+        // void Packet#b(PacketDataSerializer)
+        private static final Method PACKET_WRITE_ME = lookupMethod(SendingHandles.PACKET_CLS, "b", PDS_CLS);
+
+        // nms.EnumProtocolDirection
+        private static final Class<?> EPD_CLS = lookupClass(NMS_PACKAGE + "EnumProtocolDirection");
+        // EnumProtocolDirection#CLIENTBOUND
+        private static final Object EPD_CLIENTBOUND_INST = lookupEnumConstant(EPD_CLS, "CLIENTBOUND");
+        // Integer EnumProtocol#a(EnumProtocolDirection, Packet)
+        private static final Method EP_PACKET_ID_ME = lookupMethod(ConnectionHandles.EP_CLS, "a",
+                EPD_CLS, SendingHandles.PACKET_CLS);
+
+        // The deflater of each thread broadcasting packets,
+        // reset after each use
+        private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+        // The number of bytes by which to grow the compressed
+        // buffer when the deflater fills it
+        private static final int DEFLATE_CHUNK = 8192;
+
+        private final Object packet;
+
+        private Object uncompressed;
+        private int compressedThreshold = -1;
+        private Object compressed;
+
+        /**
+         * Creates a new set of encodings for the given
+         * packet.
+         *
+         * @param packet the NMS packet instance
+         */
+        BroadcastEncoding(Object packet) {
+            this.packet = packet;
+        }
+
+        /**
+         * Obtains the packet ID followed by the packet
+         * content, as written by the server's encoder.
+         *
+         * @return the uncompressed buffer
+         * @throws IllegalArgumentException if the packet is
+         * not a clientbound play packet
+         */
+        Object getUncompressed() {
+            if (this.uncompressed != null) {
+                return this.uncompressed;
+            }
+
+            Integer packetId = invokeMethod(EP_PACKET_ID_ME, ConnectionHandles.EP_PLAY_INST,
+                    EPD_CLIENTBOUND_INST, this.packet);
+            if (packetId == null) {
+                throw new IllegalArgumentException(this.packet.getClass().getName() +
+                        " is not a clientbound play packet");
+            }
+
+            Object buf = invokeMethod(SendingHandles.UNPOOLED_BUFFER_ME, null);
+            byte[] idBytes = new byte[5];
+            int idLength = writeVarInt(idBytes, 0, packetId);
+            invokeMethod(SendingHandles.BB_WRITE_BYTES_ME, buf, idBytes, 0, idLength);
+
+            Object serializer = newInstance(PDS_CTOR, buf);
+            invokeMethod(PACKET_WRITE_ME, this.packet, serializer);
+
+            this.uncompressed = buf;
+            return buf;
+        }
+
+        /**
+         * Obtains the packet as written by the given
+         * server compressor.
+         *
+         * @param compressor the compressor of the connection
+         * @return the compressed buffer
+         */
+        Object getCompressed(Object compressor) {
+            int threshold = getFieldValue(SendingHandles.PCOMP_THRESHOLD, compressor);
+            if (this.compressed != null) {
+                if (threshold == this.compressedThreshold) {
+                    return this.compressed;
+                }
+
+                // Connections rarely differ in threshold, so
+                // only the last one is kept
+                invokeMethod(SendingHandles.RC_RELEASE_ME, this.compressed);
+                this.compressed = null;
+            }
+
+            Object uncompressed = this.getUncompressed();
+            int length = invokeMethod(SendingHandles.BB_READABLE_BYTES_ME, uncompressed);
+            byte[] lengthBytes = new byte[5];
+            if (length < threshold) {
+                int idx = writeVarInt(lengthBytes, 0, 0);
+                Object buf = invokeMethod(SendingHandles.UNPOOLED_BUFFER_CAPACITY_ME, null, idx + length);
+                invokeMethod(SendingHandles.BB_WRITE_BYTES_ME, buf, lengthBytes, 0, idx);
+                invokeMethod(SendingHandles.BB_WRITE_BUF_ME, buf, uncompressed, 0, length);
+
+                this.compressedThreshold = threshold;
+                this.compressed = buf;
+                return buf;
+            }
+
+            int idx = writeVarInt(lengthBytes, 0, length);
+            Object buf = invokeMethod(SendingHandles.UNPOOLED_BUFFER_CAPACITY_ME, null, idx + DEFLATE_CHUNK);
+            invokeMethod(SendingHandles.BB_WRITE_BYTES_ME, buf, lengthBytes, 0, idx);
+
+            // Both buffers are heap buffers, so the deflater
+            // reads and writes their arrays directly
+            byte[] input = invokeMethod(SendingHandles.BB_ARRAY_ME, uncompressed);
+            int inputOffset = invokeMethod(SendingHandles.BB_ARRAY_OFFSET_ME, uncompressed);
+            Deflater deflater = DEFLATER.get();
+            try {
+                deflater.setInput(input, inputOffset, length);
+                deflater.finish();
+                while (!deflater.finished()) {
+                    invokeMethod(SendingHandles.BB_ENSURE_WRITABLE_ME, buf, DEFLATE_CHUNK);
+
+                    byte[] output = invokeMethod(SendingHandles.BB_ARRAY_ME, buf);
+                    int outputOffset = invokeMethod(SendingHandles.BB_ARRAY_OFFSET_ME, buf);
+                    int writerIndex = invokeMethod(SendingHandles.BB_WRITER_INDEX_ME, buf);
+                    int writable = invokeMethod(SendingHandles.BB_WRITABLE_BYTES_ME, buf);
+                    int deflated = deflater.deflate(output, outputOffset + writerIndex, writable);
+                    invokeMethod(SendingHandles.BB_SET_WRITER_INDEX_ME, buf, writerIndex + deflated);
+                }
+            } finally {
+                deflater.reset();
+            }
+
+            this.compressedThreshold = threshold;
+            this.compressed = buf;
+            return buf;
+        }
+
+        /**
+         * Releases the encoded buffers. Buffers that have
+         * been duplicated are only freed once every
+         * connection has written them.
+         */
+        void release() {
+            if (this.uncompressed != null) {
+                invokeMethod(SendingHandles.RC_RELEASE_ME, this.uncompressed);
+                this.uncompressed = null;
+            }
+
+            if (this.compressed != null) {
+                invokeMethod(SendingHandles.RC_RELEASE_ME, this.compressed);
+                this.compressed = null;
+            }
+        }
+    }
+
+    /**
+     * Determines the number of bytes needed to encode the
+     * given value as a VarInt.
+     *
+     * @param value the value to encode
+     * @return the size of the encoded value
+     */
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+
+        return size;
+    }
+
+    /**
+     * Encodes the given value as a VarInt into the given
+     * array.
+     *
+     * @param dst the array to write to
+     * @param idx the index at which to begin writing
+     * @param value the value to encode
+     * @return the index after the encoded value
+     */
+    private static int writeVarInt(byte[] dst, int idx, int value) {
+        while ((value & ~0x7F) != 0) {
+            dst[idx++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        dst[idx++] = (byte) value;
+        return idx;
+    }
+
+    // Silenced exception reflection lookup/caller methods
+
+    /**
+     * Looks up a class using its FQN (Fully Qualified
+     * Name).
+     *
+     * @param className the FQN
+     * @return the class that was found
+     * @throws RuntimeException if the class was not found
+     */
+    private static Class<?> lookupClass(String className) {
+        try {
+            return Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Looks up a method from the given class and with the
+     * given method name and parameters.
+     *
+     * @param cls the class containing the method
+     * @param methodName the name of the method
+     * @param params the parameters for the method
+     * @return the method object
+     * @throws RuntimeException if the method cannot be
+     * found
+     */
+    private static Method lookupMethod(Class<?> cls, String methodName, Class<?>... params) {
+        try {
+            return cls.getDeclaredMethod(methodName, params);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calls the given method on the given instance of the
+     * enclosing class and with the given arguments.
+     *
+     * @param method the method to invoke
+     * @param instance the instance of the enclosing class
+     * on which to call the method, or {@code null} if the
+     * method is static
+     * @param args the arguments to pass to the method
+     * @return the return value of the method invoked
+     * @throws RuntimeException if the method cannot be
+     * accessed or if an error occurred running the method
+     */
+    private static <T> T invokeMethod(Method method, Object instance, Object... args) {
+        try {
+            return (T) method.invoke(instance, args);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Obtains a handle for the given public method which
+     * takes {@code Object} arguments, so that it can be
+     * invoked exactly without knowing the types involved.
+     *
+     * @param method the method to obtain a handle for
+     * @param returnType {@code Object.class} to return the
+     * result, or {@code void.class} to discard it
+     * @return the handle to the method
+     */
+    private static MethodHandle lookupGenericHandle(Method method, Class<?> returnType) {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+            return handle.asType(MethodType.genericMethodType(handle.type().parameterCount())
+                    .changeReturnType(returnType));
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Looks up a field from the given class with the given
+     * name.
+     *
+     * <p>This method always makes the field accessible
+     * reflectively</p>
+     *
+     * @param cls the enclosing class containing the field
+     * @param fieldName the name of the field to lookup
+     * @return the field object
+     * @throws RuntimeException if the field is not found
+     */
+    private static Field lookupField(Class<?> cls, String fieldName) {
+        try {
+            Field field = cls.getDeclaredField(fieldName);
+            field.setAccessible(true);
+
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     /**
@@ -1033,4 +6667,139 @@ public class TinierProtocol {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Looks up the only instance field of the given type
+     * in the given class, used for fields with obfuscated
+     * names.
+     *
+     * <p>This method always makes the field accessible
+     * reflectively</p>
+     *
+     * @param cls the enclosing class containing the field
+     * @param type the type of the field
+     * @return the field object
+     * @throws RuntimeException if the field is not found
+     */
+    private static Field lookupInstanceField(Class<?> cls, Class<?> type) {
+        for (Field field : cls.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && field.getType() == type) {
+                field.setAccessible(true);
+                return field;
+            }
+        }
+
+        throw new RuntimeException("No " + type.getName() + " field in " + cls.getName());
+    }
+
+    /**
+     * Obtains the value of the only static field of the
+     * given type in the given class, used for fields with
+     * obfuscated names.
+     *
+     * @param cls the enclosing class containing the field
+     * @param type the type of the field
+     * @return the value of the field
+     * @throws RuntimeException if the field is not found
+     */
+    private static <T> T lookupStaticValue(Class<?> cls, Class<?> type) {
+        for (Field field : cls.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) && field.getType() == type) {
+                field.setAccessible(true);
+                return getFieldValue(field, null);
+            }
+        }
+
+        throw new RuntimeException("No static " + type.getName() + " field in " + cls.getName());
+    }
+
+    /**
+     * Looks up the enum constant with the given name.
+     *
+     * @param cls the enum class
+     * @param name the name of the constant
+     * @return the enum constant
+     * @throws RuntimeException if the constant is not
+     * found
+     */
+    private static Object lookupEnumConstant(Class<?> cls, String name) {
+        for (Object constant : cls.getEnumConstants()) {
+            if (((Enum<?>) constant).name().equals(name)) {
+                return constant;
+            }
+        }
+
+        throw new RuntimeException("No constant " + name + " in " + cls.getName());
+    }
+
+    /**
+     * Looks up a constructor from the given class with the
+     * given parameters.
+     *
+     * <p>This method always makes the constructor
+     * accessible reflectively</p>
+     *
+     * @param cls the class to construct
+     * @param params the parameters for the constructor
+     * @return the constructor object
+     * @throws RuntimeException if the constructor cannot be
+     * found
+     */
+    private static Constructor<?> lookupConstructor(Class<?> cls, Class<?>... params) {
+        try {
+            Constructor<?> ctor = cls.getDeclaredConstructor(params);
+            ctor.setAccessible(true);
+
+            return ctor;
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calls the given constructor with the given arguments.
+     *
+     * @param ctor the constructor to call
+     * @param args the arguments to pass to the constructor
+     * @return the new instance
+     * @throws RuntimeException if the constructor cannot be
+     * accessed or if an error occurred running it
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(Constructor<?> ctor, Object... args) {
+        try {
+            return (T) ctor.newInstance(args);
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates a GenericFutureListener proxy which runs the
+     * given task once the future it is added to completes.
+     *
+     * @param name the string representation of the
+     * listener
+     * @param task the task to run
+     * @return the listener proxy
+     */
+    private static Object newFutureListener(String name, Runnable task) {
+        return Proxy.newProxyInstance(GFL_CLS.getClassLoader(),
+                new Class<?>[]{GFL_CLS},
+                (o, method, args) -> {
+                    switch (method.getName()) {
+                        case "operationComplete":
+                            task.run();
+                            return null;
+                        case "equals":
+                            return o == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(o);
+                        case "toString":
+                            return name;
+                        default:
+                            return null;
+                    }
+                });
+    }
 }